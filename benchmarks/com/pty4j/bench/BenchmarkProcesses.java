@@ -0,0 +1,59 @@
+package com.pty4j.bench;
+
+import com.pty4j.PtyProcess;
+import com.pty4j.PtyProcessBuilder;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Children of the benchmarks: a shell script run in a pty.
+ */
+final class BenchmarkProcesses {
+
+  /**
+   * Writes zero bytes to the pty as fast as it can.
+   */
+  static final String STREAM_ZEROS = "exec cat /dev/zero";
+
+  /**
+   * Reads and drops everything written to the pty, without echoing it back.
+   */
+  static final String DISCARD_INPUT = "stty raw -echo; exec cat > /dev/null";
+
+  private BenchmarkProcesses() {
+  }
+
+  static @NotNull PtyProcess start(@NotNull String script, boolean console) throws IOException {
+    return new PtyProcessBuilder(new String[]{"/bin/sh", "-c", script})
+      .setConsole(console)
+      .setInitialColumns(120)
+      .setInitialRows(40)
+      .start();
+  }
+
+  /**
+   * Reads the output of the process on a daemon thread until it exits, so that it never blocks on a full pty.
+   */
+  static void drain(@NotNull InputStream inputStream) {
+    Thread thread = new Thread(() -> {
+      byte[] buffer = new byte[8192];
+      try {
+        //noinspection StatementWithEmptyBody
+        while (inputStream.read(buffer) >= 0) {
+        }
+      }
+      catch (IOException ignored) {
+      }
+    }, "Pty4J Benchmark Drain");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  static void destroy(@NotNull PtyProcess process) throws InterruptedException {
+    process.destroyForcibly();
+    process.waitFor(5, TimeUnit.SECONDS);
+  }
+}
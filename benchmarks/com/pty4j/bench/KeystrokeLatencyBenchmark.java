@@ -0,0 +1,185 @@
+package com.pty4j.bench;
+
+import com.pty4j.PtyProcess;
+import com.pty4j.PtyProcessBuilder;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Keystroke round-trip latency: a single byte written to {@code getOutputStream()} until its echo is read
+ * from {@code getInputStream()}.
+ * <p>
+ * In cooked mode the echo comes from the terminal line discipline, so only pty4j and the kernel are measured.
+ * In raw mode the echo is disabled, and {@code cat} writes the byte back, which adds a wake-up of the child.
+ * Each mode is measured while idle and while other sessions stream output as fast as they can,
+ * with blocking reader threads and with the shared reactor.
+ * <p>
+ * Run with {@code ./gradlew keystrokeBenchmark -PkeystrokeBenchmarkArgs="..."}, options:
+ * <ul>
+ *   <li>{@code --samples=N}: keystrokes per case, 2000 by default</li>
+ *   <li>{@code --load-sessions=N}: sessions streaming output in the loaded cases, 8 by default</li>
+ *   <li>{@code --interval-us=N}: pause between keystrokes, 1000 by default</li>
+ * </ul>
+ */
+public final class KeystrokeLatencyBenchmark {
+
+  // the line is submitted now and then in cooked mode, as the line discipline keeps 4095 bytes at most
+  private static final int COOKED_LINE_LENGTH = 256;
+  private static final long[] BUCKET_BOUNDS_MICROS = {16, 32, 64, 128, 256, 512, 1024, 2048, 4096, 8192, 16384};
+
+  private int mySamples = 2000;
+  private int myLoadSessions = 8;
+  private long myIntervalNanos = TimeUnit.MICROSECONDS.toNanos(1000);
+
+  public static void main(String[] args) throws Exception {
+    KeystrokeLatencyBenchmark benchmark = new KeystrokeLatencyBenchmark();
+    for (String arg : args) {
+      int ind = arg.indexOf('=');
+      String name = ind > 0 ? arg.substring(0, ind) : arg;
+      String value = ind > 0 ? arg.substring(ind + 1) : "";
+      switch (name) {
+        case "--samples":
+          benchmark.mySamples = Integer.parseInt(value);
+          break;
+        case "--load-sessions":
+          benchmark.myLoadSessions = Integer.parseInt(value);
+          break;
+        case "--interval-us":
+          benchmark.myIntervalNanos = TimeUnit.MICROSECONDS.toNanos(Long.parseLong(value));
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown option: " + arg);
+      }
+    }
+    benchmark.run();
+    System.exit(0);
+  }
+
+  private void run() throws Exception {
+    for (boolean reactor : new boolean[]{false, true}) {
+      for (boolean load : new boolean[]{false, true}) {
+        List<PtyProcess> loadSessions = new ArrayList<>();
+        try {
+          if (load) {
+            for (int i = 0; i < myLoadSessions; i++) {
+              PtyProcess session = builder(BenchmarkProcesses.STREAM_ZEROS, reactor).start();
+              BenchmarkProcesses.drain(session.getInputStream());
+              loadSessions.add(session);
+            }
+          }
+          for (boolean raw : new boolean[]{false, true}) {
+            String name = (raw ? "raw" : "cooked") + ", " + (reactor ? "shared reactor" : "reader threads") + ", " +
+                          (load ? myLoadSessions + " sessions streaming" : "idle");
+            report(name, measure(raw, reactor));
+          }
+        }
+        finally {
+          for (PtyProcess session : loadSessions) {
+            BenchmarkProcesses.destroy(session);
+          }
+        }
+      }
+    }
+  }
+
+  private static @NotNull PtyProcessBuilder builder(@NotNull String script, boolean reactor) {
+    return new PtyProcessBuilder(new String[]{"/bin/sh", "-c", script}).setUnixUseSharedReactor(reactor);
+  }
+
+  private long[] measure(boolean raw, boolean reactor) throws Exception {
+    String script = (raw ? "stty raw -echo; " : "") + "echo ready; exec cat";
+    PtyProcess process = builder(script, reactor).start();
+    try {
+      InputStream inputStream = process.getInputStream();
+      OutputStream outputStream = process.getOutputStream();
+      // no carriage return in raw mode
+      skipUntil(inputStream, "ready");
+      skipUntil(inputStream, "\n");
+      int warmUp = Math.max(100, mySamples / 10);
+      long[] latencies = new long[mySamples];
+      int lineLength = 0;
+      for (int i = -warmUp; i < mySamples; i++) {
+        if (!raw && lineLength == COOKED_LINE_LENGTH) {
+          // the echoed newline, then the line printed by cat
+          outputStream.write('\n');
+          outputStream.flush();
+          skipUntil(inputStream, "\r\n" + "x".repeat(lineLength) + "\r\n");
+          lineLength = 0;
+        }
+        LockSupport.parkNanos(myIntervalNanos);
+        long startTimeNanos = System.nanoTime();
+        outputStream.write('x');
+        outputStream.flush();
+        int b = inputStream.read();
+        long latency = System.nanoTime() - startTimeNanos;
+        if (b != 'x') {
+          throw new IOException("Unexpected echo: " + b);
+        }
+        lineLength++;
+        if (i >= 0) {
+          latencies[i] = latency;
+        }
+      }
+      return latencies;
+    }
+    finally {
+      BenchmarkProcesses.destroy(process);
+    }
+  }
+
+  private static void skipUntil(@NotNull InputStream inputStream, @NotNull String expected) throws IOException {
+    byte[] expectedBytes = expected.getBytes(StandardCharsets.US_ASCII);
+    byte[] window = new byte[expectedBytes.length];
+    int count = 0;
+    while (count < window.length || !Arrays.equals(window, expectedBytes)) {
+      int b = inputStream.read();
+      if (b < 0) {
+        throw new IOException("No \"" + expected.trim() + "\" in the output");
+      }
+      if (count < window.length) {
+        window[count++] = (byte)b;
+      }
+      else {
+        System.arraycopy(window, 1, window, 0, window.length - 1);
+        window[window.length - 1] = (byte)b;
+      }
+    }
+  }
+
+  private static void report(@NotNull String name, long[] latencies) {
+    long[] sorted = latencies.clone();
+    Arrays.sort(sorted);
+    System.out.printf("%n%s: %d keystrokes%n", name, sorted.length);
+    System.out.printf("  p50 %.1f us, p90 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f us%n",
+                      percentile(sorted, 0.5) / 1e3, percentile(sorted, 0.9) / 1e3, percentile(sorted, 0.99) / 1e3,
+                      percentile(sorted, 0.999) / 1e3, sorted[sorted.length - 1] / 1e3);
+    int[] counts = new int[BUCKET_BOUNDS_MICROS.length + 1];
+    for (long latency : sorted) {
+      int bucket = 0;
+      while (bucket < BUCKET_BOUNDS_MICROS.length && latency >= TimeUnit.MICROSECONDS.toNanos(BUCKET_BOUNDS_MICROS[bucket])) {
+        bucket++;
+      }
+      counts[bucket]++;
+    }
+    for (int i = 0; i < counts.length; i++) {
+      String bound = i < BUCKET_BOUNDS_MICROS.length ? "< " + BUCKET_BOUNDS_MICROS[i] + " us"
+                                                     : ">= " + BUCKET_BOUNDS_MICROS[i - 1] + " us";
+      int width = (int)Math.ceil(60.0 * counts[i] / sorted.length);
+      System.out.printf("  %12s %6d %s%n", bound, counts[i], "#".repeat(width));
+    }
+  }
+
+  private static long percentile(long[] sorted, double fraction) {
+    int index = (int)Math.ceil(fraction * sorted.length) - 1;
+    return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+  }
+}
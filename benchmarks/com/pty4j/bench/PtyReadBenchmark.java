@@ -0,0 +1,53 @@
+package com.pty4j.bench;
+
+import com.pty4j.PtyProcess;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-call overhead of small {@code getInputStream().read} calls: the data is always available, so the time is spent
+ * in pty4j and the native bindings. Run with {@code -prof gc} to see the allocation per call.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PtyReadBenchmark {
+
+  @Param({"false", "true"})
+  public boolean console;
+
+  @Param({"1", "16", "256", "4096"})
+  public int bufferSize;
+
+  private PtyProcess myProcess;
+  private InputStream myInputStream;
+  private byte[] myBuffer;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    myProcess = BenchmarkProcesses.start(BenchmarkProcesses.STREAM_ZEROS, console);
+    myInputStream = myProcess.getInputStream();
+    myBuffer = new byte[bufferSize];
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws InterruptedException {
+    BenchmarkProcesses.destroy(myProcess);
+  }
+
+  @Benchmark
+  public int read() throws IOException {
+    return myInputStream.read(myBuffer, 0, bufferSize);
+  }
+
+  @Benchmark
+  public int readByte() throws IOException {
+    return myInputStream.read();
+  }
+}
@@ -0,0 +1,65 @@
+package com.pty4j.bench;
+
+import com.pty4j.PtyProcess;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sustained throughput of {@code getInputStream().read} from a child that streams data through the pty as fast as it can.
+ * The {@code bytes} counter is the rate in bytes per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PtyThroughputBenchmark {
+
+  @Param({"false", "true"})
+  public boolean console;
+
+  @Param({"4096", "65536"})
+  public int bufferSize;
+
+  private PtyProcess myProcess;
+  private InputStream myInputStream;
+  private byte[] myBuffer;
+
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  @State(Scope.Thread)
+  public static class Counters {
+    public long bytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      bytes = 0;
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    myProcess = BenchmarkProcesses.start(BenchmarkProcesses.STREAM_ZEROS, console);
+    myInputStream = myProcess.getInputStream();
+    myBuffer = new byte[bufferSize];
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws InterruptedException {
+    BenchmarkProcesses.destroy(myProcess);
+  }
+
+  @Benchmark
+  public int read(Counters counters) throws IOException {
+    int count = myInputStream.read(myBuffer);
+    if (count < 0) {
+      throw new EOFException("The child has exited");
+    }
+    counters.bytes += count;
+    return count;
+  }
+}
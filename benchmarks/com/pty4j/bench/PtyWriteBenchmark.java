@@ -0,0 +1,58 @@
+package com.pty4j.bench;
+
+import com.pty4j.PtyProcess;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-call cost of {@code getOutputStream().write} to a child that drops its input without echoing it.
+ * Large buffers may block until the child has read the data, like in real use.
+ * Run with {@code -prof gc} to see the allocation per call.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PtyWriteBenchmark {
+
+  @Param({"false", "true"})
+  public boolean console;
+
+  @Param({"1", "16", "256", "4096"})
+  public int bufferSize;
+
+  private PtyProcess myProcess;
+  private OutputStream myOutputStream;
+  private byte[] myBuffer;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    myProcess = BenchmarkProcesses.start(BenchmarkProcesses.DISCARD_INPUT, console);
+    // the terminal may echo the input until stty has run
+    BenchmarkProcesses.drain(myProcess.getInputStream());
+    myOutputStream = myProcess.getOutputStream();
+    myBuffer = new byte[bufferSize];
+    Arrays.fill(myBuffer, (byte)'x');
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws InterruptedException {
+    BenchmarkProcesses.destroy(myProcess);
+  }
+
+  @Benchmark
+  public void write() throws IOException {
+    myOutputStream.write(myBuffer, 0, bufferSize);
+  }
+
+  @Benchmark
+  public void writeByte() throws IOException {
+    myOutputStream.write('x');
+  }
+}
@@ -0,0 +1,299 @@
+package com.pty4j.bench;
+
+import com.pty4j.Pty4j;
+import com.pty4j.PtyProcess;
+import com.pty4j.PtyProcessBuilder;
+import com.pty4j.WinSize;
+import com.pty4j.unix.UnixPtyProcess;
+import com.pty4j.util.PtyUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Spawn and teardown latency of pty processes across launch strategies, JVM heap sizes and concurrency levels.
+ * <p>
+ * Each spawn is timed from {@code start()} until the initial window size is set on the pty, then to the first output
+ * byte, then {@code destroy()} until the process is reaped. The initial size is set by the child before it executes
+ * the program: with {@code clone(CLONE_VM|CLONE_VFORK)} it's done when {@code start()} returns, while a forked child,
+ * the spawn helper or the spawn daemon may still be doing it, and an old libpty sets it from the parent within spawn.
+ * The pty allocation and spawn times are taken from {@link UnixPtyProcess}, and the native extraction and library
+ * loading times from {@link Pty4j#preload}, once per JVM.
+ * <p>
+ * Run with {@code ./gradlew spawnBenchmark -PspawnBenchmarkArgs="..."}, options:
+ * <ul>
+ *   <li>{@code --spawns=N}: spawns per strategy and concurrency level, 200 by default</li>
+ *   <li>{@code --concurrency=1,4,16}: the numbers of threads spawning at the same time</li>
+ *   <li>{@code --heaps=256m,2g}: runs each heap size in a separate JVM, by default the current JVM is used</li>
+ *   <li>{@code --strategies=exec,fork,spawn-helper,spawn-daemon}: strategies that need
+ *   {@code pty4j-unix-spawn-helper} are skipped if it's not available</li>
+ *   <li>{@code --max-p99-ms=X}: exits with 1 if the p99 of a whole spawn is above X ms, to gate releases</li>
+ * </ul>
+ */
+public final class SpawnLatencyBenchmark {
+
+  private static final String[] COMMAND = {"/bin/sh", "-c", "echo r; exec cat"};
+  private static final WinSize INITIAL_SIZE = new WinSize(100, 30);
+  private static final String[] METRICS = {"total", "start", "pty alloc", "spawn", "initial size", "first byte", "teardown"};
+
+  private enum Strategy {
+    EXEC("exec", null, false),
+    FORK("fork", "fork", false),
+    SPAWN_HELPER("spawn-helper", "spawn-helper", false),
+    SPAWN_DAEMON("spawn-daemon", null, true);
+
+    private final String myName;
+    private final String myLaunchMechanism;
+    private final boolean mySpawnDaemon;
+
+    Strategy(@NotNull String name, @Nullable String launchMechanism, boolean spawnDaemon) {
+      myName = name;
+      myLaunchMechanism = launchMechanism;
+      mySpawnDaemon = spawnDaemon;
+    }
+
+    private boolean needsSpawnHelper() {
+      return this == SPAWN_HELPER || this == SPAWN_DAEMON;
+    }
+
+    private static @NotNull Strategy fromName(@NotNull String name) {
+      for (Strategy strategy : values()) {
+        if (strategy.myName.equals(name)) {
+          return strategy;
+        }
+      }
+      throw new IllegalArgumentException("Unknown strategy: " + name);
+    }
+  }
+
+  private int mySpawns = 200;
+  private int[] myConcurrency = {1, 4, 16};
+  private List<String> myHeaps = List.of();
+  private List<Strategy> myStrategies = List.of(Strategy.values());
+  private double myMaxP99Millis = Double.NaN;
+  private final List<String> myWorkerArgs = new ArrayList<>();
+
+  public static void main(String[] args) throws Exception {
+    SpawnLatencyBenchmark benchmark = new SpawnLatencyBenchmark();
+    benchmark.parse(args);
+    boolean passed = benchmark.myHeaps.isEmpty() ? benchmark.runWorker() : benchmark.runWorkerPerHeap();
+    System.exit(passed ? 0 : 1);
+  }
+
+  private void parse(@NotNull String[] args) {
+    for (String arg : args) {
+      int ind = arg.indexOf('=');
+      String name = ind > 0 ? arg.substring(0, ind) : arg;
+      String value = ind > 0 ? arg.substring(ind + 1) : "";
+      switch (name) {
+        case "--spawns":
+          mySpawns = Integer.parseInt(value);
+          break;
+        case "--concurrency":
+          myConcurrency = Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).toArray();
+          break;
+        case "--heaps":
+          myHeaps = List.of(value.split(","));
+          continue;
+        case "--strategies":
+          myStrategies = Arrays.stream(value.split(",")).map(Strategy::fromName).collect(Collectors.toList());
+          break;
+        case "--max-p99-ms":
+          myMaxP99Millis = Double.parseDouble(value);
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown option: " + arg);
+      }
+      myWorkerArgs.add(arg);
+    }
+  }
+
+  private boolean runWorkerPerHeap() throws IOException, InterruptedException {
+    String java = ProcessHandle.current().info().command().orElse("java");
+    boolean passed = true;
+    for (String heap : myHeaps) {
+      List<String> command = new ArrayList<>();
+      command.add(java);
+      command.add("-Xms" + heap);
+      command.add("-Xmx" + heap);
+      for (String name : System.getProperties().stringPropertyNames()) {
+        if (name.startsWith("pty4j.")) {
+          command.add("-D" + name + "=" + System.getProperty(name));
+        }
+      }
+      command.add("-cp");
+      command.add(System.getProperty("java.class.path"));
+      command.add(SpawnLatencyBenchmark.class.getName());
+      command.addAll(myWorkerArgs);
+      Process process = new ProcessBuilder(command).inheritIO().start();
+      passed &= process.waitFor() == 0;
+    }
+    return passed;
+  }
+
+  private boolean runWorker() throws Exception {
+    System.out.printf("JVM %s, max heap %d MB, %d processors%n", System.getProperty("java.version"),
+                      Runtime.getRuntime().maxMemory() >> 20, Runtime.getRuntime().availableProcessors());
+    Map<String, Duration> preloadTimes = Pty4j.preload(Runnable::run).get();
+    StringBuilder preload = new StringBuilder("initialization:");
+    preloadTimes.forEach((phase, time) -> preload.append(String.format(" %s %.3f ms", phase, time.toNanos() / 1e6)));
+    System.out.println(preload);
+
+    boolean passed = true;
+    for (Strategy strategy : myStrategies) {
+      if (strategy.needsSpawnHelper() && !isSpawnHelperAvailable()) {
+        System.out.println(strategy.myName + ": skipped, pty4j-unix-spawn-helper is not available");
+        continue;
+      }
+      if (strategy.myLaunchMechanism != null) {
+        System.setProperty("pty4j.launch.mechanism", strategy.myLaunchMechanism);
+      }
+      try {
+        PtyProcessBuilder builder = new PtyProcessBuilder(COMMAND)
+          .setInitialColumns(INITIAL_SIZE.getColumns())
+          .setInitialRows(INITIAL_SIZE.getRows())
+          .setUnixUseSpawnDaemon(strategy.mySpawnDaemon);
+        for (int concurrency : myConcurrency) {
+          // warm-up
+          run(builder, concurrency, Math.max(5, mySpawns / 10));
+          passed &= report(strategy, concurrency, run(builder, concurrency, mySpawns));
+        }
+      }
+      finally {
+        System.clearProperty("pty4j.launch.mechanism");
+      }
+    }
+    return passed;
+  }
+
+  private static boolean isSpawnHelperAvailable() {
+    try {
+      return PtyUtil.resolveNativeFile("pty4j-unix-spawn-helper").canExecute();
+    }
+    catch (IllegalStateException e) {
+      return false;
+    }
+  }
+
+  private static @NotNull Result run(@NotNull PtyProcessBuilder builder, int concurrency, int spawns) throws Exception {
+    long[][] samples = new long[METRICS.length][spawns];
+    AtomicInteger next = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+    long startTimeNanos = System.nanoTime();
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < concurrency; i++) {
+        futures.add(executor.submit(() -> {
+          int index;
+          while ((index = next.getAndIncrement()) < spawns) {
+            spawn(builder, samples, index);
+          }
+          return null;
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    }
+    finally {
+      executor.shutdown();
+    }
+    return new Result(samples, System.nanoTime() - startTimeNanos);
+  }
+
+  private static void spawn(@NotNull PtyProcessBuilder builder, long[][] samples, int index) throws Exception {
+    long startTimeNanos = System.nanoTime();
+    PtyProcess process = builder.start();
+    long startedNanos = System.nanoTime();
+    awaitInitialSize(process);
+    long sizedNanos = System.nanoTime();
+    InputStream inputStream = process.getInputStream();
+    if (inputStream.read() < 0) {
+      throw new IOException("No output from " + Arrays.toString(COMMAND));
+    }
+    long firstByteNanos = System.nanoTime();
+    process.destroy();
+    if (!process.waitFor(10, TimeUnit.SECONDS)) {
+      throw new IOException("Process is not terminated: " + process.pid());
+    }
+    long reapedNanos = System.nanoTime();
+    inputStream.close();
+    process.getOutputStream().close();
+
+    samples[0][index] = reapedNanos - startTimeNanos;
+    samples[1][index] = startedNanos - startTimeNanos;
+    if (process instanceof UnixPtyProcess) {
+      samples[2][index] = ((UnixPtyProcess)process).getPtyAllocationNanos();
+      samples[3][index] = ((UnixPtyProcess)process).getSpawnNanos();
+    }
+    samples[4][index] = sizedNanos - startedNanos;
+    samples[5][index] = firstByteNanos - sizedNanos;
+    samples[6][index] = reapedNanos - firstByteNanos;
+  }
+
+  private static void awaitInitialSize(@NotNull PtyProcess process) throws IOException {
+    long deadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (true) {
+      try {
+        if (INITIAL_SIZE.equals(process.getWinSize())) {
+          return;
+        }
+      }
+      catch (IOException ignored) {
+        // ENOTTY until the child opens the slave on some systems
+      }
+      if (System.nanoTime() > deadlineNanos) {
+        throw new IOException("Initial size is not set: " + process.pid());
+      }
+      Thread.onSpinWait();
+    }
+  }
+
+  private boolean report(@NotNull Strategy strategy, int concurrency, @NotNull Result result) {
+    int spawns = result.mySamples[0].length;
+    System.out.printf("%n%s, concurrency %d: %d spawns, %.1f spawns/s%n", strategy.myName, concurrency, spawns,
+                      spawns / (result.myWallNanos / 1e9));
+    System.out.printf("  %-12s %10s %10s%n", "", "p50 ms", "p99 ms");
+    for (int i = 0; i < METRICS.length; i++) {
+      long[] sorted = result.mySamples[i].clone();
+      Arrays.sort(sorted);
+      System.out.printf("  %-12s %10.3f %10.3f%n", METRICS[i], percentile(sorted, 0.5) / 1e6, percentile(sorted, 0.99) / 1e6);
+    }
+    long[] totals = result.mySamples[0].clone();
+    Arrays.sort(totals);
+    double p99Millis = percentile(totals, 0.99) / 1e6;
+    if (p99Millis > myMaxP99Millis) {
+      System.out.printf("  FAILED: total p99 %.3f ms is above %.3f ms%n", p99Millis, myMaxP99Millis);
+      return false;
+    }
+    return true;
+  }
+
+  private static long percentile(long[] sorted, double fraction) {
+    int index = (int)Math.ceil(fraction * sorted.length) - 1;
+    return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+  }
+
+  private static final class Result {
+    private final long[][] mySamples;
+    private final long myWallNanos;
+
+    private Result(long[][] samples, long wallNanos) {
+      mySamples = samples;
+      myWallNanos = wallNanos;
+    }
+  }
+}
@@ -4,6 +4,7 @@ import org.gradle.api.tasks.testing.logging.TestExceptionFormat
 import org.gradle.api.tasks.testing.logging.TestLogEvent
 import org.jetbrains.kotlin.gradle.dsl.JvmTarget
 import org.jetbrains.kotlin.gradle.tasks.KotlinCompile
+import java.security.MessageDigest
 import java.time.ZonedDateTime
 import java.time.format.DateTimeFormatter
 import kotlin.io.path.readText
@@ -28,6 +29,9 @@ val projectVersion = rootProject.projectDir.toPath().resolve("VERSION").readText
 
 version = projectVersion
 
+// the FFM backend in src-java22 is compiled only by JDK 22+; without it, CLibrary falls back to the JNA backends
+val buildJava22 = JavaVersion.current() >= JavaVersion.VERSION_22
+
 sourceSets {
   main {
     java.srcDirs("src")
@@ -35,6 +39,17 @@ sourceSets {
   test {
     java.srcDirs("test")
   }
+  // JMH benchmarks, run with `./gradlew jmh`
+  create("jmh") {
+    java.srcDirs("benchmarks")
+    compileClasspath += main.get().output + main.get().compileClasspath
+    runtimeClasspath += main.get().output + main.get().runtimeClasspath
+  }
+  // classes for JDK 22+ packed into META-INF/versions/22 of the multi-release jar
+  create("java22") {
+    java.srcDirs("src-java22")
+    compileClasspath += main.get().output + main.get().compileClasspath
+  }
 }
 
 java {
@@ -50,6 +65,13 @@ tasks {
     configureKotlinCompile(JvmTarget.JVM_11)
   }
 
+  named<JavaCompile>("compileJava22Java") {
+    enabled = buildJava22
+    options.release = 22
+    options.compilerArgs.add("-Xlint:deprecation")
+    logJavaEnvironmentOnStart(this)
+  }
+
   compileTestJava {
     configureJavaCompile(JavaVersion.VERSION_11)
   }
@@ -58,17 +80,29 @@ tasks {
     configureKotlinCompile(JvmTarget.JVM_11)
   }
 
+  named<JavaCompile>("compileJmhJava") {
+    configureJavaCompile(JavaVersion.VERSION_11)
+  }
+
   jar {
     from("os") {
       include("**/*")
       into(pathToNativeInJar)
     }
+    if (buildJava22) {
+      into("META-INF/versions/22") {
+        from(sourceSets["java22"].output)
+      }
+    }
     manifest {
       attributes(
+        "Multi-Release" to "true",
         "Build-Timestamp" to DateTimeFormatter.ISO_INSTANT.format(ZonedDateTime.now()),
         "Created-By" to "Gradle ${gradle.gradleVersion}",
         "Build-Jdk" to System.getProperty("java.runtime.version"),
-        "Build-OS" to "${System.getProperty("os.name")} ${System.getProperty("os.arch")} ${System.getProperty("os.version")}"
+        "Build-OS" to "${System.getProperty("os.name")} ${System.getProperty("os.arch")} ${System.getProperty("os.version")}",
+        // names the persistent cache directory of extracted natives, see ExtractedNative
+        "Pty4J-Native-Hash" to nativeContentHash(file("os"))
       )
     }
   }
@@ -104,9 +138,22 @@ tasks.withType<Test> {
     showStackTraces = true
     showStandardStreams = true
   }
+  if (name != "stressTest") {
+    exclude("com/pty4j/PtyStressTest.class")
+  }
   logJavaEnvironmentOnStart(this)
 }
 
+fun nativeContentHash(nativeDir: File): String {
+  val digest = MessageDigest.getInstance("SHA-256")
+  nativeDir.walkTopDown().filter { it.isFile }.sortedBy { it.relativeTo(nativeDir).invariantSeparatorsPath }.forEach {
+    digest.update(it.relativeTo(nativeDir).invariantSeparatorsPath.toByteArray())
+    digest.update(0)
+    digest.update(it.readBytes())
+  }
+  return digest.digest().joinToString("") { "%02x".format(it) }
+}
+
 fun logJavaEnvironmentOnStart(task: Task) {
   task.doFirst {
     println("[${task.name}] java.version: ${System.getProperty("java.version")}, java.home: ${System.getProperty("java.home")}")
@@ -128,6 +175,57 @@ tasks.register<Test>("testJar") {
   shouldRunAfter(tasks.test)
 }
 
+tasks.register<JavaExec>("nativeStartupBenchmark") {
+  description = "Measures extraction of natives on startup: temp directory vs persistent cache"
+  group = "verification"
+  classpath = sourceSets.test.get().runtimeClasspath
+  mainClass = "com.pty4j.util.ExtractedNativeStartupBenchmark"
+  systemProperty("org.slf4j.simpleLogger.log.com.pty4j.util.ExtractedNative", "warn")
+}
+
+tasks.register<Test>("stressTest") {
+  description = "Churns many pty sessions and fails on leaked fds, threads or memory, Linux only"
+  group = "verification"
+  testClassesDirs = sourceSets.test.get().output.classesDirs
+  classpath = sourceSets.test.get().runtimeClasspath
+  filter {
+    includeTestsMatching("com.pty4j.PtyStressTest")
+  }
+  // a fixed, pre-touched heap keeps its growth out of the RSS comparison
+  jvmArgs("-Xms256m", "-Xmx256m", "-XX:+AlwaysPreTouch", "-XX:NativeMemoryTracking=summary")
+  for (property in listOf("pty4j.stress.sessions", "pty4j.stress.cycles", "pty4j.stress.scaling")) {
+    providers.gradleProperty(property).orNull?.let { systemProperty(property, it) }
+  }
+}
+
+tasks.register<JavaExec>("jmh") {
+  description = "Runs JMH benchmarks, JMH options can be passed with -PjmhArgs=\"...\", e.g. -PjmhArgs=\"Read -prof gc\""
+  group = "verification"
+  classpath = sourceSets["jmh"].runtimeClasspath
+  mainClass = "org.openjdk.jmh.Main"
+  // inherited by the forked benchmark JVMs
+  jvmArgs("-Dpty4j.preferred.native.folder=${file("os").absolutePath}")
+  args(providers.gradleProperty("jmhArgs").map { it.split(" ").filter(String::isNotBlank) }.getOrElse(emptyList()))
+}
+
+tasks.register<JavaExec>("spawnBenchmark") {
+  description = "Measures spawn and teardown latency of pty processes, options can be passed with -PspawnBenchmarkArgs=\"...\""
+  group = "verification"
+  classpath = sourceSets["jmh"].runtimeClasspath
+  mainClass = "com.pty4j.bench.SpawnLatencyBenchmark"
+  jvmArgs("-Dpty4j.preferred.native.folder=${file("os").absolutePath}")
+  args(providers.gradleProperty("spawnBenchmarkArgs").map { it.split(" ").filter(String::isNotBlank) }.getOrElse(emptyList()))
+}
+
+tasks.register<JavaExec>("keystrokeBenchmark") {
+  description = "Measures keystroke echo latency, options can be passed with -PkeystrokeBenchmarkArgs=\"...\""
+  group = "verification"
+  classpath = sourceSets["jmh"].runtimeClasspath
+  mainClass = "com.pty4j.bench.KeystrokeLatencyBenchmark"
+  jvmArgs("-Dpty4j.preferred.native.folder=${file("os").absolutePath}")
+  args(providers.gradleProperty("keystrokeBenchmarkArgs").map { it.split(" ").filter(String::isNotBlank) }.getOrElse(emptyList()))
+}
+
 tasks.check {
   dependsOn("testJar")
 }
@@ -142,6 +240,8 @@ dependencies {
   testImplementation("org.jetbrains.kotlinx:kotlinx-coroutines-core-jvm:1.8.1")
   testImplementation("org.assertj:assertj-core:3.26.0")
   testRuntimeOnly("org.slf4j:slf4j-simple:2.0.9")
+  "jmhImplementation"("org.openjdk.jmh:jmh-core:1.37")
+  "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.37")
 }
 
 publishing {
@@ -24,6 +24,10 @@
 #include <sys/syscall.h>
 #include <dirent.h>
 #include <ctype.h>
+#if defined(__linux__)
+#include <sched.h>
+#include <sys/mman.h>
+#endif
 
 #include "exec_pty.h"
 
@@ -38,23 +42,28 @@ extern int ptys_open(int fdm, const char *pts_name, bool acquire);
 
 extern void set_noecho(int fd);
 
+#if defined(__linux__) && !defined(TIOCGPTPEER)
+#define TIOCGPTPEER _IO('T', 0x41)
+#endif
 
-void restore_signal(int signum) {
-    struct sigaction action;
-    memset(&action, 0, sizeof(action));
-    action.sa_handler = SIG_DFL;
-    sigemptyset(&action.sa_mask);
-    action.sa_flags = 0;
-    if (sigaction(signum, &action, NULL) != 0) {
-        fprintf(stderr, "%s(%d): cannot set SIG_DFL for signal %d: %s\n", __FUNCTION__, __LINE__, signum, strerror(errno));
-    }
+/*
+ * Opens the slave side of the pty fdm in the child. On Linux 4.13+ TIOCGPTPEER returns it right from the master,
+ * without a lookup of pts_name in /dev/pts; older kernels fall back to ptys_open().
+ */
+static int open_slave_in_child(int fdm, const char *pts_name, bool acquire) {
+#if defined(__linux__)
+	int fds = ioctl(fdm, TIOCGPTPEER, O_RDWR);
+	if (fds >= 0) {
+		if (acquire) {
+			/* an error is expected in console mode */
+			ioctl(fds, TIOCSCTTY, (char *) 0);
+		}
+		return fds;
+	}
+#endif
+	return ptys_open(fdm, pts_name, acquire);
 }
 
-void restore_signals() {
-    restore_signal(SIGPIPE);
-    restore_signal(SIGINT);
-    restore_signal(SIGQUIT);
-}
 
 static int sys_close_range_wrapper(unsigned int from_fd_inclusive) {
     // Use fast `close_range` (https://man7.org/linux/man-pages/man2/close_range.2.html) if available.
@@ -108,101 +117,343 @@ static void close_all_fds_fallback(unsigned int from_fd_inclusive) {
     }
 }
 
-static void close_all_fds() {
-    unsigned int from_fd = STDERR_FILENO + 1;
-    if (sys_close_range_wrapper(from_fd) == 0) return;
-    if (close_all_fds_using_parsing(from_fd) == 0) return;
-    close_all_fds_fallback(from_fd);
+struct exec_pty_args {
+	const char *full_path;
+	char *const *argv;
+	char *const *envp;
+	const char *dirpath;
+	const char *pts_name;
+	int fdm;
+	const char *err_pts_name;
+	int err_fdm;
+	int console;
+	const struct winsize *win_size;
+	sigset_t child_mask;
+	/*
+	 * The failed step and its errno. A clone(CLONE_VM)-ed child writes them right here, visible to the parent;
+	 * a forked child writes them to status_fd.
+	 */
+	volatile int error_step;
+	volatile int error;
+	int status_fd;
+};
+
+/*
+ * Resets all caught signals to SIG_DFL, so that no JVM handler can run in the child.
+ * SIGPIPE, SIGINT and SIGQUIT are reset even if ignored by the JVM.
+ */
+static void reset_signals_in_child(const sigset_t *mask) {
+	struct sigaction action;
+	memset(&action, 0, sizeof(action));
+	action.sa_handler = SIG_DFL;
+	sigemptyset(&action.sa_mask);
+	for (int sig = 1; sig < NSIG; sig++) {
+		struct sigaction current;
+		if (sigaction(sig, NULL, &current) != 0 || current.sa_handler == SIG_DFL) continue;
+		if (current.sa_handler != SIG_IGN || sig == SIGPIPE || sig == SIGINT || sig == SIGQUIT) {
+			sigaction(sig, &action, NULL);
+		}
+	}
+	sigprocmask(SIG_SETMASK, mask, NULL);
 }
 
-pid_t exec_pty(const char *path, char *const argv[], char *const envp[], const char *dirpath,
-		       const char *pts_name, int fdm, const char *err_pts_name, int err_fdm, int console)
-{
-	pid_t childpid;
-	char *full_path;
-
-	/*
-	 * We use pfind() to check that the program exists and is an executable.
-	 * If not pass the error up.  Also execve() wants a full path.
-	 */ 
-	full_path = pfind(path, envp);
-	if (full_path == NULL) {
-		fprintf(stderr, "Unable to find full path for \"%s\"\n", (path) ? path : "");
-		return -1;
+#if defined(__linux__)
+/*
+ * Closes fds >= from_fd_inclusive reading /proc/self/fd with getdents64 into a stack buffer:
+ * unlike opendir(), it doesn't allocate, so it's safe in a clone(CLONE_VM)-ed child.
+ */
+static int close_all_fds_using_getdents(unsigned int from_fd_inclusive) {
+	int dir_fd = open("/proc/self/fd", O_RDONLY | O_DIRECTORY | O_CLOEXEC);
+	if (dir_fd < 0) return -1;
+	char buf[4096];
+	long count;
+	while ((count = syscall(SYS_getdents64, dir_fd, buf, sizeof(buf))) > 0) {
+		for (long offset = 0; offset < count;) {
+			/* struct linux_dirent64: d_ino (8), d_off (8), d_reclen (2), d_type (1), d_name */
+			unsigned short reclen;
+			memcpy(&reclen, buf + offset + 16, sizeof(reclen));
+			const char *name = buf + offset + 19;
+			if (isdigit((unsigned char)name[0])) {
+				int fd = 0;
+				for (const char *c = name; *c >= '0' && *c <= '9'; c++) fd = fd * 10 + (*c - '0');
+				if (fd >= (int)from_fd_inclusive && fd != dir_fd) close(fd);
+			}
+			offset += reclen;
+		}
 	}
+	close(dir_fd);
+	return count == 0 ? 0 : -1;
+}
+#endif
 
-	childpid = fork();
+static void close_all_fds_in_child(unsigned int from_fd, bool shares_memory) {
+	if (sys_close_range_wrapper(from_fd) == 0) return;
+#if defined(__linux__)
+	if (close_all_fds_using_getdents(from_fd) == 0) return;
+#endif
+	if (!shares_memory && close_all_fds_using_parsing(from_fd) == 0) return;
+	close_all_fds_fallback(from_fd);
+}
 
-	if (childpid < 0) {
-		fprintf(stderr, "%s(%d): returning due to error: %s\n", __FUNCTION__, __LINE__, strerror(errno));
-		free(full_path);
-		return -1;
-	} else if (childpid == 0) { /* child */
+static void child_failed(struct exec_pty_args *args, int step) {
+	args->error = errno != 0 ? errno : EINVAL;
+	args->error_step = step;
+	if (args->status_fd >= 0) {
+		int status[2] = {step, args->error};
+		while (write(args->status_fd, status, sizeof(status)) < 0 && errno == EINTR);
+	}
+}
 
-		chdir(dirpath);
+/*
+ * Sets up the pty and the session of the child process and executes the program.
+ * Returns only on failure, after reporting it with child_failed().
+ *
+ * Must stay async-signal-safe (no stdio, no malloc): if shares_memory is true, the child shares the address space
+ * of the parent, see clone_and_exec().
+ */
+static void exec_in_child(struct exec_pty_args *args, bool shares_memory) {
+	int fds;
+	int err_fds = -1;
+	bool console = args->console;
+
+	if (chdir(args->dirpath) < 0) {
+		child_failed(args, EXEC_PTY_STEP_CHDIR);
+		return;
+	}
 
-		int fds;
-		int err_fds = -1;
+	if (!console && setsid() < 0) {
+		child_failed(args, EXEC_PTY_STEP_SETSID);
+		return;
+	}
 
-		if (!console && setsid() < 0) {
-			perror("setsid()");
-			return -1;
-		}
+	fds = open_slave_in_child(args->fdm, args->pts_name, true);
+	if (fds < 0) {
+		child_failed(args, EXEC_PTY_STEP_OPEN_SLAVE);
+		return;
+	}
 
-		fds = ptys_open(fdm, pts_name, true);
-		if (fds < 0) {
-			fprintf(stderr, "%s(%d): returning due to error: %s\n", __FUNCTION__, __LINE__, strerror(errno));
-			return -1;
+	if (console && args->err_fdm >= 0) {
+		err_fds = open_slave_in_child(args->err_fdm, args->err_pts_name, false);
+		if (err_fds < 0) {
+			child_failed(args, EXEC_PTY_STEP_OPEN_ERR_SLAVE);
+			return;
 		}
+	}
 
-		if (console && err_fdm >= 0) {
-			err_fds = ptys_open(err_fdm, err_pts_name, false);
-			if (err_fds < 0) {
-				fprintf(stderr, "%s(%d): returning due to error: %s\n", __FUNCTION__, __LINE__, strerror(errno));
-				return -1;
-			}
-		}
+	if (args->win_size != NULL) {
+		/* on the slave, which is a tty by now: no ENOTTY race with the parent setting it on the master */
+		ioctl(fds, TIOCSWINSZ, args->win_size);
+	}
 
-		/* close masters, no need in the child */
-		close(fdm);
-		if (console && err_fdm >= 0) close(err_fdm);
+	/* close masters, no need in the child */
+	close(args->fdm);
+	if (console && args->err_fdm >= 0) close(args->err_fdm);
 
-		if (console) {
-			set_noecho(fds);
-			if (setpgid(getpid(), getpid()) < 0) {
-				perror("setpgid()");
-				return -1;
-			}
+	if (console) {
+		set_noecho(fds);
+		if (setpgid(0, 0) < 0) {
+			child_failed(args, EXEC_PTY_STEP_SETPGID);
+			return;
 		}
+	}
 
-		/* redirections */
-		dup2(fds, STDIN_FILENO);   /* dup stdin */
-		dup2(fds, STDOUT_FILENO);  /* dup stdout */
-		dup2(console && err_fds >= 0 ? err_fds : fds, STDERR_FILENO);  /* dup stderr */
+	/* redirections */
+	dup2(fds, STDIN_FILENO);   /* dup stdin */
+	dup2(fds, STDOUT_FILENO);  /* dup stdout */
+	dup2(console && err_fds >= 0 ? err_fds : fds, STDERR_FILENO);  /* dup stderr */
 
-		close(fds);  /* done with fds. */
-		if (console && err_fds >= 0) close(err_fds);
+	close(fds);  /* done with fds. */
+	if (console && err_fds >= 0) close(err_fds);
 
-		/* Close all the fd's in the child */
-        close_all_fds();
+	/* Close all the fd's in the child, but the status pipe, moved right after stderr */
+	unsigned int from_fd = STDERR_FILENO + 1;
+	if (args->status_fd >= 0) {
+		if (args->status_fd != (int) from_fd) {
+			dup2(args->status_fd, from_fd);
+			args->status_fd = from_fd;
+		}
+		fcntl(args->status_fd, F_SETFD, FD_CLOEXEC);
+		from_fd++;
+	}
+	close_all_fds_in_child(from_fd, shares_memory);
 
-		restore_signals();
+	reset_signals_in_child(&args->child_mask);
 
-		execve(full_path, argv, envp);
+	execve(args->full_path, args->argv, args->envp);
+	child_failed(args, EXEC_PTY_STEP_EXEC);
+}
 
+/*
+ * Forks the child and waits on a close-on-exec pipe until it has called execve(): EOF means success,
+ * otherwise the child writes the failed step and errno before exiting.
+ */
+static pid_t fork_and_exec(struct exec_pty_args *args) {
+	int status_pipe[2];
+	if (pipe(status_pipe) != 0) {
+		args->error_step = EXEC_PTY_STEP_FORK;
+		return -1;
+	}
+	fcntl(status_pipe[0], F_SETFD, FD_CLOEXEC);
+	fcntl(status_pipe[1], F_SETFD, FD_CLOEXEC);
+
+	sigprocmask(SIG_SETMASK, NULL, &args->child_mask);
+	pid_t childpid = fork();
+	if (childpid == 0) {
+		close(status_pipe[0]);
+		args->status_fd = status_pipe[1];
+		exec_in_child(args, false);
 		_exit(127);
+	}
+	int fork_errno = errno;
+	close(status_pipe[1]);
+	if (childpid < 0) {
+		close(status_pipe[0]);
+		args->error_step = EXEC_PTY_STEP_FORK;
+		errno = fork_errno;
+		return -1;
+	}
+
+	int status[2];
+	ssize_t count;
+	while ((count = read(status_pipe[0], status, sizeof(status))) < 0 && errno == EINTR);
+	close(status_pipe[0]);
+	if (count == sizeof(status)) {
+		/* the child has failed before execve() and exited, reap it */
+		while (waitpid(childpid, NULL, 0) < 0 && errno == EINTR);
+		args->error_step = status[0];
+		errno = status[1];
+		return -1;
+	}
+	return childpid;
+}
+
+#if defined(__linux__)
+#define CLONE_STACK_SIZE (128 * 1024)
+
+static int clone_child_main(void *arg) {
+	exec_in_child((struct exec_pty_args *) arg, true);
+	_exit(127);
+}
+
+/*
+ * Starts the child with clone(CLONE_VM | CLONE_VFORK), like posix_spawn() does in glibc: the child borrows the address
+ * space of the JVM instead of copying its page tables, which makes the launch time independent of the heap size.
+ * The calling thread is suspended until the child calls execve() or exits.
+ *
+ * All signals are blocked around clone(), so that no JVM signal handler runs on the child's stack;
+ * the child resets the handlers and restores the original mask before execve().
+ */
+static pid_t clone_and_exec(struct exec_pty_args *args) {
+	void *stack = mmap(NULL, CLONE_STACK_SIZE, PROT_READ | PROT_WRITE, MAP_PRIVATE | MAP_ANONYMOUS | MAP_STACK, -1, 0);
+	if (stack == MAP_FAILED) {
+		args->error_step = EXEC_PTY_STEP_FORK;
+		return -1;
+	}
+	sigset_t all_signals;
+	sigfillset(&all_signals);
+	/* per-thread on Linux, same as pthread_sigmask(), which is in libpthread only before glibc 2.32 */
+	sigprocmask(SIG_BLOCK, &all_signals, &args->child_mask);
+	args->error = 0;
+	args->error_step = 0;
+
+	/* the stack grows down on all architectures supported by pty4j */
+	pid_t childpid = clone(clone_child_main, (char *) stack + CLONE_STACK_SIZE, CLONE_VM | CLONE_VFORK | SIGCHLD, args);
+	int clone_errno = errno;
+
+	sigprocmask(SIG_SETMASK, &args->child_mask, NULL);
+	munmap(stack, CLONE_STACK_SIZE);
+
+	if (childpid < 0) {
+		args->error_step = EXEC_PTY_STEP_FORK;
+		errno = clone_errno;
+		return -1;
+	}
+	if (args->error_step != 0) {
+		/* the child has failed before execve() and exited, reap it */
+		int error = args->error;
+		while (waitpid(childpid, NULL, 0) < 0 && errno == EINTR);
+		errno = error;
+		return -1;
+	}
+	return childpid;
+}
+#endif
+
+pid_t exec_pty_ex(const char *path, char *const argv[], char *const envp[], const char *dirpath,
+                  const char *pts_name, int fdm, const char *err_pts_name, int err_fdm, int console,
+                  const struct winsize *win_size, int flags, int *status)
+{
+	pid_t childpid;
+	char *full_path;
+	int launch;
+
+	if (status != NULL) {
+		status[0] = status[1] = status[2] = 0;
+	}
 
-	} else if (childpid != 0) { /* parent */
-		if (console) {
-			set_noecho(fdm);
+	/*
+	 * We use pfind() to check that the program exists and is an executable.
+	 * If not pass the error up.  Also execve() wants a full path.
+	 */
+	errno = 0;
+	full_path = pfind(path, envp);
+	if (full_path == NULL) {
+		if (errno == 0) errno = ENOENT;
+		if (status != NULL) {
+			status[0] = EXEC_PTY_STEP_FIND_EXECUTABLE;
+			status[1] = errno;
 		}
+		return -1;
+	}
 
-		free(full_path);
-		return childpid;
+	struct exec_pty_args args = {
+		.full_path = full_path,
+		.argv = argv,
+		.envp = envp,
+		.dirpath = dirpath,
+		.pts_name = pts_name,
+		.fdm = fdm,
+		.err_pts_name = err_pts_name,
+		.err_fdm = err_fdm,
+		.console = console,
+		.win_size = win_size,
+		.error_step = 0,
+		.error = 0,
+		.status_fd = -1
+	};
+
+#if defined(__linux__)
+	if ((flags & EXEC_PTY_FORK) == 0) {
+		launch = EXEC_PTY_LAUNCH_CLONE;
+		childpid = clone_and_exec(&args);
+	}
+	else
+#endif
+	{
+		launch = EXEC_PTY_LAUNCH_FORK;
+		childpid = fork_and_exec(&args);
 	}
 
+	if (childpid > 0 && console) {
+		set_noecho(fdm);
+	}
+	if (status != NULL) {
+		if (childpid < 0) {
+			status[0] = args.error_step;
+			status[1] = errno;
+		}
+		status[2] = launch;
+	}
+	int saved_errno = errno;
 	free(full_path);
-	return -1;                  /*NOT REACHED */
+	errno = saved_errno;
+	return childpid;
+}
+
+pid_t exec_pty(const char *path, char *const argv[], char *const envp[], const char *dirpath,
+		       const char *pts_name, int fdm, const char *err_pts_name, int err_fdm, int console)
+{
+	return exec_pty_ex(path, argv, envp, dirpath, pts_name, fdm, err_pts_name, err_fdm, console, NULL, EXEC_PTY_FORK, NULL);
 }
 
 int wait_for_child_process_exit(pid_t child_pid) {
@@ -6,6 +6,38 @@
 pid_t exec_pty(const char *path, char *const argv[], char *const envp[], const char *dirpath,
                const char *pts_name, int fdm, const char *err_pts_name, int err_fdm, int console);
 
+/* Flags of exec_pty_ex */
+
+/* Start the child with fork() even where a faster launch is available (clone(CLONE_VM|CLONE_VFORK) on Linux) */
+#define EXEC_PTY_FORK 0x1
+
+/* Steps of starting the child, reported by exec_pty_ex when one of them fails */
+#define EXEC_PTY_STEP_FIND_EXECUTABLE 1
+#define EXEC_PTY_STEP_FORK 2
+#define EXEC_PTY_STEP_CHDIR 3
+#define EXEC_PTY_STEP_SETSID 4
+#define EXEC_PTY_STEP_OPEN_SLAVE 5
+#define EXEC_PTY_STEP_OPEN_ERR_SLAVE 6
+#define EXEC_PTY_STEP_SETPGID 7
+#define EXEC_PTY_STEP_EXEC 8
+
+/* Launch mechanisms, reported by exec_pty_ex */
+#define EXEC_PTY_LAUNCH_FORK 1
+#define EXEC_PTY_LAUNCH_CLONE 2
+
+/*
+ * Same as exec_pty, but on Linux starts the child without copying the address space of the caller, unless
+ * EXEC_PTY_FORK is set. If win_size is not NULL, the child applies it to the pty before execve(), so that the program
+ * starts with the right size.
+ *
+ * Returns only after the child has called execve() successfully. Otherwise returns -1 with errno set.
+ * If status is not NULL, it receives three values: the failed step (EXEC_PTY_STEP_*, 0 on success) in status[0],
+ * its errno in status[1] and the launch mechanism that was used (EXEC_PTY_LAUNCH_*, 0 if none) in status[2].
+ */
+pid_t exec_pty_ex(const char *path, char *const argv[], char *const envp[], const char *dirpath,
+                  const char *pts_name, int fdm, const char *err_pts_name, int err_fdm, int console,
+                  const struct winsize *win_size, int flags, int *status);
+
 int wait_for_child_process_exit(int child_pid);
 
 int get_window_size(int fd, struct winsize *size);
@@ -0,0 +1,391 @@
+/*
+ * Spawn daemon mode of pty4j-unix-spawn-helper (`pty4j-unix-spawn-helper --daemon`).
+ *
+ * The daemon is started once by the JVM and forks pty processes on request from its own small address space,
+ * so that the spawn cost doesn't depend on the JVM heap size. The children are children of the daemon:
+ * it reaps them and reports their exit codes to the JVM.
+ *
+ * Requests are read from stdin, responses are written to stdout. All integers are 32-bit in native byte order.
+ *
+ * Request:  int32 length, followed by `length` bytes:
+ *           int32 request_id, int32 console, int32 argc, int32 envc, int32 columns, int32 rows (0 to keep the size),
+ *           NUL-terminated strings: cwd, pts_name, err_pts_name (empty if none), argv[argc], envp[envc]
+ *
+ * Response: int32 type, int32 key, int32 value
+ *           READY   (0): key = protocol version, value = pid of the daemon; sent once on start
+ *           SPAWNED (1): key = request_id, value = pid of the child, sent after a successful execve()
+ *           FAILED  (2): key = request_id, value = errno | step << 16, step is one of EXEC_PTY_STEP_* (exec_pty.h)
+ *                        or 0 for an invalid request
+ *           EXITED  (3): key = pid of the child, value = exit code (128 + signal number if killed by a signal)
+ *
+ * The daemon exits when its stdin is closed. Running children are left alone.
+ */
+#include <errno.h>
+#include <fcntl.h>
+#include <limits.h>
+#include <poll.h>
+#include <signal.h>
+#include <stdbool.h>
+#include <stdint.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <sys/ioctl.h>
+#include <sys/types.h>
+#include <sys/wait.h>
+#include <unistd.h>
+
+#include "../exec_pty.h"
+
+#ifndef PATH_MAX
+#define PATH_MAX 1024
+#endif
+
+#define PROTOCOL_VERSION 3
+#define MAX_REQUEST_SIZE (16 * 1024 * 1024)
+
+enum {
+    MSG_READY = 0,
+    MSG_SPAWNED = 1,
+    MSG_FAILED = 2,
+    MSG_EXITED = 3
+};
+
+/* from openpty.c */
+extern void set_noecho(int fd);
+
+/* from unix-spawn-helper.c */
+extern void restore_signals(void);
+
+struct spawn_request {
+    int32_t id;
+    int32_t console;
+    struct winsize win_size;
+    const char *cwd;
+    const char *pts_name;
+    const char *err_pts_name;
+    char **argv;
+    char **envp;
+};
+
+static int sigchld_pipe[2];
+
+static void on_sigchld(int signum) {
+    (void) signum;
+    int saved_errno = errno;
+    ssize_t ignored = write(sigchld_pipe[1], "", 1);
+    (void) ignored;
+    errno = saved_errno;
+}
+
+static bool read_fully(int fd, void *buf, size_t len) {
+    char *p = buf;
+    while (len > 0) {
+        ssize_t count = read(fd, p, len);
+        if (count < 0 && errno == EINTR) continue;
+        if (count <= 0) return false;
+        p += count;
+        len -= count;
+    }
+    return true;
+}
+
+static bool write_fully(int fd, const void *buf, size_t len) {
+    const char *p = buf;
+    while (len > 0) {
+        ssize_t count = write(fd, p, len);
+        if (count < 0 && errno == EINTR) continue;
+        if (count <= 0) return false;
+        p += count;
+        len -= count;
+    }
+    return true;
+}
+
+static void send_message(int32_t type, int32_t key, int32_t value) {
+    int32_t message[3] = {type, key, value};
+    if (!write_fully(STDOUT_FILENO, message, sizeof(message))) {
+        /* the JVM is gone */
+        _exit(1);
+    }
+}
+
+/* Like ptys_open(), but keeps errno of a failed open() for the report. */
+static int open_slave(const char *pts_name, bool acquire) {
+    int fds = open(pts_name, O_RDWR);
+#if defined(TIOCSCTTY)
+    if (fds >= 0 && acquire) {
+        /* an error is expected in console mode */
+        ioctl(fds, TIOCSCTTY, (char *) 0);
+    }
+#endif
+    return fds;
+}
+
+static void set_cloexec(int fd) {
+    fcntl(fd, F_SETFD, fcntl(fd, F_GETFD) | FD_CLOEXEC);
+}
+
+static const char *next_string(char **p, const char *end) {
+    const char *str = *p;
+    char *nul = memchr(*p, '\0', end - *p);
+    if (nul == NULL) return NULL;
+    *p = nul + 1;
+    return str;
+}
+
+static char **parse_strings(char **p, const char *end, int32_t count) {
+    if (count < 0) return NULL;
+    char **strings = calloc((size_t) count + 1, sizeof(char *));
+    if (strings == NULL) return NULL;
+    for (int32_t i = 0; i < count; i++) {
+        strings[i] = (char *) next_string(p, end);
+        if (strings[i] == NULL) {
+            free(strings);
+            return NULL;
+        }
+    }
+    return strings;
+}
+
+static bool parse_request(char *data, size_t size, struct spawn_request *request) {
+    int32_t header[6];
+    if (size < sizeof(header)) return false;
+    memcpy(header, data, sizeof(header));
+    request->id = header[0];
+    request->console = header[1];
+    memset(&request->win_size, 0, sizeof(request->win_size));
+    request->win_size.ws_col = (unsigned short) header[4];
+    request->win_size.ws_row = (unsigned short) header[5];
+    char *p = data + sizeof(header);
+    const char *end = data + size;
+    request->cwd = next_string(&p, end);
+    request->pts_name = next_string(&p, end);
+    request->err_pts_name = next_string(&p, end);
+    if (request->cwd == NULL || request->pts_name == NULL || request->err_pts_name == NULL || header[2] < 1) return false;
+    request->argv = parse_strings(&p, end, header[2]);
+    if (request->argv == NULL) return false;
+    request->envp = parse_strings(&p, end, header[3]);
+    if (request->envp == NULL) {
+        free(request->argv);
+        return false;
+    }
+    return true;
+}
+
+/* Finds the executable like execvp() does, but in PATH of the child environment. */
+static const char *find_executable(const char *file, char *const envp[], char *buf, size_t buf_size) {
+    if (strchr(file, '/') != NULL) {
+        return access(file, X_OK) == 0 ? file : NULL;
+    }
+    const char *path = "/usr/bin:/bin";
+    for (int i = 0; envp[i] != NULL; i++) {
+        if (strncmp(envp[i], "PATH=", 5) == 0) {
+            path = envp[i] + 5;
+            break;
+        }
+    }
+    while (*path != '\0') {
+        const char *separator = strchr(path, ':');
+        size_t dir_len = separator != NULL ? (size_t) (separator - path) : strlen(path);
+        if (dir_len > 0 && snprintf(buf, buf_size, "%.*s/%s", (int) dir_len, path, file) < (int) buf_size &&
+            access(buf, X_OK) == 0) {
+            return buf;
+        }
+        if (separator == NULL) break;
+        path = separator + 1;
+    }
+    return NULL;
+}
+
+static int32_t failure(int step, int error) {
+    return (int32_t) (error | step << 16);
+}
+
+/*
+ * Runs in the forked child, never returns.
+ * Reports the failed step and errno to status_fd if the program cannot be executed.
+ */
+static void exec_child(const struct spawn_request *request, const char *path, int status_fd) {
+    bool console = request->console != 0;
+    int err_fds = -1;
+    int step = EXEC_PTY_STEP_CHDIR;
+
+    if (chdir(request->cwd) < 0) goto fail;
+
+    step = EXEC_PTY_STEP_SETSID;
+    if (!console && setsid() < 0) goto fail;
+
+    step = EXEC_PTY_STEP_OPEN_SLAVE;
+    int fds = open_slave(request->pts_name, true);
+    if (fds < 0) goto fail;
+
+    if (request->win_size.ws_col > 0 && request->win_size.ws_row > 0) {
+        ioctl(fds, TIOCSWINSZ, &request->win_size);
+    }
+
+    step = EXEC_PTY_STEP_OPEN_ERR_SLAVE;
+    if (console && request->err_pts_name[0] != '\0') {
+        err_fds = open_slave(request->err_pts_name, false);
+        if (err_fds < 0) goto fail;
+    }
+
+    step = EXEC_PTY_STEP_SETPGID;
+    if (console) {
+        set_noecho(fds);
+        if (setpgid(0, 0) < 0) goto fail;
+    }
+
+    /* redirections, they also replace the protocol pipes of the daemon */
+    dup2(fds, STDIN_FILENO);
+    dup2(fds, STDOUT_FILENO);
+    dup2(err_fds >= 0 ? err_fds : fds, STDERR_FILENO);
+
+    close(fds);
+    if (err_fds >= 0) close(err_fds);
+
+    restore_signals();
+    sigset_t empty_mask;
+    sigemptyset(&empty_mask);
+    sigprocmask(SIG_SETMASK, &empty_mask, NULL);
+
+    step = EXEC_PTY_STEP_EXEC;
+    execve(path, request->argv, request->envp);
+
+fail:
+    {
+        int32_t status = failure(step, errno);
+        write_fully(status_fd, &status, sizeof(status));
+        _exit(127);
+    }
+}
+
+static void spawn(const struct spawn_request *request) {
+    char path_buf[PATH_MAX];
+    const char *path = find_executable(request->argv[0], request->envp, path_buf, sizeof(path_buf));
+    if (path == NULL) {
+        send_message(MSG_FAILED, request->id, failure(EXEC_PTY_STEP_FIND_EXECUTABLE, ENOENT));
+        return;
+    }
+
+    int status_pipe[2];
+    if (pipe(status_pipe) != 0) {
+        send_message(MSG_FAILED, request->id, failure(EXEC_PTY_STEP_FORK, errno));
+        return;
+    }
+    set_cloexec(status_pipe[0]);
+    set_cloexec(status_pipe[1]);
+
+    pid_t pid = fork();
+    if (pid == 0) {
+        close(status_pipe[0]);
+        exec_child(request, path, status_pipe[1]);
+    }
+    int fork_errno = errno;
+    close(status_pipe[1]);
+    if (pid < 0) {
+        close(status_pipe[0]);
+        send_message(MSG_FAILED, request->id, failure(EXEC_PTY_STEP_FORK, fork_errno));
+        return;
+    }
+
+    /* EOF means that execve() has succeeded and closed the pipe */
+    int32_t child_status;
+    bool failed = read_fully(status_pipe[0], &child_status, sizeof(child_status));
+    close(status_pipe[0]);
+    if (failed) {
+        while (waitpid(pid, NULL, 0) < 0 && errno == EINTR);
+        send_message(MSG_FAILED, request->id, child_status);
+    }
+    else {
+        send_message(MSG_SPAWNED, request->id, pid);
+    }
+}
+
+static void reap_children(void) {
+    char buf[64];
+    while (read(sigchld_pipe[0], buf, sizeof(buf)) > 0);
+
+    int status;
+    pid_t pid;
+    while ((pid = waitpid(-1, &status, WNOHANG)) > 0) {
+        int exit_code = status;
+        if (WIFEXITED(status)) {
+            exit_code = WEXITSTATUS(status);
+        }
+        else if (WIFSIGNALED(status)) {
+            exit_code = 128 + WTERMSIG(status);
+        }
+        send_message(MSG_EXITED, pid, exit_code);
+    }
+}
+
+static bool handle_request(void) {
+    int32_t length;
+    if (!read_fully(STDIN_FILENO, &length, sizeof(length))) return false;
+    if (length <= 0 || length > MAX_REQUEST_SIZE) {
+        fprintf(stderr, "pty4j spawn daemon: invalid request length %d\n", length);
+        return false;
+    }
+    char *data = malloc((size_t) length);
+    if (data == NULL || !read_fully(STDIN_FILENO, data, (size_t) length)) {
+        free(data);
+        return false;
+    }
+    struct spawn_request request;
+    if (parse_request(data, (size_t) length, &request)) {
+        spawn(&request);
+        free(request.argv);
+        free(request.envp);
+    }
+    else {
+        int32_t id;
+        memcpy(&id, data, sizeof(id));
+        send_message(MSG_FAILED, id, EINVAL);
+    }
+    free(data);
+    return true;
+}
+
+int run_spawn_daemon(void) {
+    if (pipe(sigchld_pipe) != 0) {
+        perror("pipe()");
+        return 1;
+    }
+    for (int i = 0; i < 2; i++) {
+        set_cloexec(sigchld_pipe[i]);
+        fcntl(sigchld_pipe[i], F_SETFL, fcntl(sigchld_pipe[i], F_GETFL) | O_NONBLOCK);
+    }
+    set_cloexec(STDIN_FILENO);
+    set_cloexec(STDOUT_FILENO);
+
+    struct sigaction action;
+    memset(&action, 0, sizeof(action));
+    action.sa_handler = on_sigchld;
+    sigemptyset(&action.sa_mask);
+    action.sa_flags = SA_RESTART | SA_NOCLDSTOP;
+    if (sigaction(SIGCHLD, &action, NULL) != 0) {
+        perror("sigaction()");
+        return 1;
+    }
+
+    send_message(MSG_READY, PROTOCOL_VERSION, getpid());
+
+    while (true) {
+        struct pollfd fds[2] = {
+            {.fd = STDIN_FILENO, .events = POLLIN},
+            {.fd = sigchld_pipe[0], .events = POLLIN}
+        };
+        if (poll(fds, 2, -1) < 0) {
+            if (errno == EINTR) continue;
+            perror("poll()");
+            return 1;
+        }
+        if (fds[1].revents & POLLIN) {
+            reap_children();
+        }
+        if (fds[0].revents & (POLLIN | POLLHUP | POLLERR)) {
+            if (!handle_request()) return 0;
+        }
+    }
+}
@@ -5,11 +5,15 @@
 #include <stdio.h>
 #include <unistd.h>
 #include <stdbool.h>
+#include <sys/ioctl.h>
 
 extern int ptys_open(int fdm, const char *pts_name, bool acquire);
 
 extern void set_noecho(int fd);
 
+/* from spawn-daemon.c */
+extern int run_spawn_daemon(void);
+
 void restore_signal(int signum) {
     struct sigaction action;
     memset(&action, 0, sizeof(action));
@@ -32,7 +36,9 @@ int parseInt(char* str) {
 }
 
 int main (int argc, char* argv[]) {
-
+  if (argc == 2 && strcmp(argv[1], "--daemon") == 0) {
+    return run_spawn_daemon();
+  }
 
   const char *cwd = argv[1];
   const int consoleMode = parseInt(argv[2]);
@@ -43,6 +49,17 @@ int main (int argc, char* argv[]) {
   char *file = argv[7];
   argv = &argv[7];
 
+  /* passed in the environment, so that older helpers ignore it; not inherited by the command */
+  int columns = 0;
+  int rows = 0;
+  const char *initial_size = getenv("PTY4J_INITIAL_WINSIZE");
+  if (initial_size != NULL) {
+    if (sscanf(initial_size, "%d,%d", &columns, &rows) != 2) {
+      columns = rows = 0;
+    }
+    unsetenv("PTY4J_INITIAL_WINSIZE");
+  }
+
   chdir(cwd);
 
   int err_fds = -1;
@@ -58,6 +75,11 @@ int main (int argc, char* argv[]) {
     return -1;
   }
 
+  if (columns > 0 && rows > 0) {
+    struct winsize win_size = {.ws_row = rows, .ws_col = columns};
+    ioctl(fds, TIOCSWINSZ, &win_size);
+  }
+
   if (consoleMode && err_fdm >= 0) {
     err_fds = ptys_open(err_fdm, err_pts_name, false);
     if (err_fds < 0) {
@@ -0,0 +1,193 @@
+package com.pty4j.unix;
+
+import com.sun.jna.Native;
+import com.sun.jna.Platform;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.foreign.SymbolLookup;
+import java.lang.invoke.MethodHandle;
+
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
+/**
+ * {@link CLibraryBackend} on top of the Foreign Function and Memory API (JDK 22+).
+ * <p>
+ * Downcalls are linked once, so a call costs about as much as a JNI call without JNA's argument conversion.
+ * errno is captured by the linker and copied to JNA's last error, where {@link CLibrary#errno()} reads it.
+ * Pointers and {@code size_t} are passed as {@code long}, so it's available on 64-bit platforms only.
+ * <p>
+ * Created reflectively by {@link CLibrary}: the class is shipped in {@code META-INF/versions/22} of the jar.
+ */
+@SuppressWarnings("unused")
+final class FfmCLibrary implements CLibraryBackend {
+
+  private static final StructLayout CALL_STATE_LAYOUT = Linker.Option.captureStateLayout();
+  private static final long ERRNO_OFFSET = CALL_STATE_LAYOUT.byteOffset(MemoryLayout.PathElement.groupElement("errno"));
+  // "Function not implemented" (errno.h), 78 on macOS and the BSDs
+  private static final int ENOSYS = Platform.isLinux() ? 38 : 78;
+
+  private final MethodHandle myRead;
+  private final MethodHandle myWrite;
+  private final MethodHandle myReadv;
+  private final MethodHandle myWritev;
+  private final MethodHandle myPoll;
+  // null if not Linux
+  private final @Nullable MethodHandle myEpollCtl;
+  private final @Nullable MethodHandle myEpollWait;
+  private final ThreadLocal<MemorySegment> myCallState = ThreadLocal.withInitial(() -> Arena.ofAuto().allocate(CALL_STATE_LAYOUT));
+
+  private FfmCLibrary() {
+    Linker linker = Linker.nativeLinker();
+    SymbolLookup libc = linker.defaultLookup();
+    myRead = downcall(linker, libc, "read", FunctionDescriptor.of(JAVA_LONG, JAVA_INT, JAVA_LONG, JAVA_LONG));
+    myWrite = downcall(linker, libc, "write", FunctionDescriptor.of(JAVA_LONG, JAVA_INT, JAVA_LONG, JAVA_LONG));
+    myReadv = downcall(linker, libc, "readv", FunctionDescriptor.of(JAVA_LONG, JAVA_INT, JAVA_LONG, JAVA_INT));
+    myWritev = downcall(linker, libc, "writev", FunctionDescriptor.of(JAVA_LONG, JAVA_INT, JAVA_LONG, JAVA_INT));
+    myPoll = downcall(linker, libc, "poll", FunctionDescriptor.of(JAVA_INT, JAVA_LONG, JAVA_INT, JAVA_INT));
+    if (Platform.isLinux()) {
+      myEpollCtl = downcall(linker, libc, "epoll_ctl", FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_INT, JAVA_INT, JAVA_LONG));
+      myEpollWait = downcall(linker, libc, "epoll_wait", FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_LONG, JAVA_INT, JAVA_INT));
+    }
+    else {
+      myEpollCtl = null;
+      myEpollWait = null;
+    }
+  }
+
+  /**
+   * @param requireNativeAccess if true, the backend is not created unless native access is enabled for pty4j
+   *                            (e.g. with {@code --enable-native-access=ALL-UNNAMED}), to avoid JDK warnings
+   */
+  static @Nullable CLibraryBackend create(boolean requireNativeAccess) {
+    if (Native.POINTER_SIZE != 8 || Native.SIZE_T_SIZE != 8) {
+      return null;
+    }
+    if (requireNativeAccess && !FfmCLibrary.class.getModule().isNativeAccessEnabled()) {
+      return null;
+    }
+    return new FfmCLibrary();
+  }
+
+  private static @NotNull MethodHandle downcall(@NotNull Linker linker, @NotNull SymbolLookup lookup,
+                                                @NotNull String name, @NotNull FunctionDescriptor descriptor) {
+    MemorySegment address = lookup.find(name).orElseThrow(() -> new UnsatisfiedLinkError("Cannot find " + name + " in libc"));
+    return linker.downcallHandle(address, descriptor, Linker.Option.captureCallState("errno"));
+  }
+
+  @Override
+  public @NotNull String getName() {
+    return "ffm";
+  }
+
+  @Override
+  public long read(int fd, long buf, long count) {
+    MemorySegment callState = myCallState.get();
+    try {
+      return checkResult((long)myRead.invokeExact(callState, fd, buf, count), callState);
+    }
+    catch (Throwable t) {
+      throw rethrow(t);
+    }
+  }
+
+  @Override
+  public long write(int fd, long buf, long count) {
+    MemorySegment callState = myCallState.get();
+    try {
+      return checkResult((long)myWrite.invokeExact(callState, fd, buf, count), callState);
+    }
+    catch (Throwable t) {
+      throw rethrow(t);
+    }
+  }
+
+  @Override
+  public long readv(int fd, long iov, int iovcnt) {
+    MemorySegment callState = myCallState.get();
+    try {
+      return checkResult((long)myReadv.invokeExact(callState, fd, iov, iovcnt), callState);
+    }
+    catch (Throwable t) {
+      throw rethrow(t);
+    }
+  }
+
+  @Override
+  public long writev(int fd, long iov, int iovcnt) {
+    MemorySegment callState = myCallState.get();
+    try {
+      return checkResult((long)myWritev.invokeExact(callState, fd, iov, iovcnt), callState);
+    }
+    catch (Throwable t) {
+      throw rethrow(t);
+    }
+  }
+
+  @Override
+  public int poll(long fds, int nfds, int timeout) {
+    MemorySegment callState = myCallState.get();
+    try {
+      return (int)checkResult((int)myPoll.invokeExact(callState, fds, nfds, timeout), callState);
+    }
+    catch (Throwable t) {
+      throw rethrow(t);
+    }
+  }
+
+  @Override
+  public int epollCtl(int epfd, int op, int fd, long event) {
+    if (myEpollCtl == null) {
+      return notImplemented();
+    }
+    MemorySegment callState = myCallState.get();
+    try {
+      return (int)checkResult((int)myEpollCtl.invokeExact(callState, epfd, op, fd, event), callState);
+    }
+    catch (Throwable t) {
+      throw rethrow(t);
+    }
+  }
+
+  @Override
+  public int epollWait(int epfd, long events, int maxEvents, int timeout) {
+    if (myEpollWait == null) {
+      return notImplemented();
+    }
+    MemorySegment callState = myCallState.get();
+    try {
+      return (int)checkResult((int)myEpollWait.invokeExact(callState, epfd, events, maxEvents, timeout), callState);
+    }
+    catch (Throwable t) {
+      throw rethrow(t);
+    }
+  }
+
+  private static long checkResult(long result, @NotNull MemorySegment callState) {
+    if (result < 0) {
+      Native.setLastError(callState.get(JAVA_INT, ERRNO_OFFSET));
+    }
+    return result;
+  }
+
+  /**
+   * Fails like libc does for a missing function: epoll is available on Linux only.
+   */
+  private static int notImplemented() {
+    Native.setLastError(ENOSYS);
+    return -1;
+  }
+
+  private static @NotNull RuntimeException rethrow(@NotNull Throwable t) {
+    if (t instanceof RuntimeException) return (RuntimeException)t;
+    if (t instanceof Error) throw (Error)t;
+    return new RuntimeException(t);
+  }
+}
@@ -0,0 +1,94 @@
+package com.pty4j;
+
+import com.pty4j.unix.PtyHelpers;
+import com.pty4j.util.PtyUtil;
+import com.sun.jna.Native;
+import com.sun.jna.Platform;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Initialization of pty4j, which otherwise happens lazily on the thread that starts the first process.
+ */
+public final class Pty4j {
+
+  private static final Logger LOG = LoggerFactory.getLogger(Pty4j.class);
+
+  /**
+   * Loading of JNA and its native dispatch library.
+   */
+  public static final String PHASE_JNA = "jna";
+  /**
+   * Extraction of the bundled native files.
+   */
+  public static final String PHASE_EXTRACT = "extract";
+  /**
+   * Loading of libpty, Unix only.
+   */
+  public static final String PHASE_LIBPTY = "libpty";
+  /**
+   * Loading of libc bindings, Unix only.
+   */
+  public static final String PHASE_LIBC = "libc";
+
+  private static final List<String> PHASES = List.of(PHASE_JNA, PHASE_EXTRACT, PHASE_LIBPTY, PHASE_LIBC);
+
+  private Pty4j() {
+  }
+
+  /**
+   * Performs the initialization in the background, e.g. on application startup, so that the first start of a process
+   * doesn't pay for it. Extraction runs in parallel with JNA loading, and libc bindings are loaded in parallel
+   * with libpty.
+   * <p>
+   * Calling it is optional. If a phase fails, the returned future completes exceptionally, and the same failure
+   * is reported on the first start of a process.
+   *
+   * @return the time spent per phase, see {@code PHASE_*} constants
+   */
+  public static @NotNull CompletableFuture<Map<String, Duration>> preload(@NotNull Executor executor) {
+    Map<String, Duration> times = new ConcurrentHashMap<>();
+    CompletableFuture<Void> jna =
+      CompletableFuture.runAsync(() -> measure(PHASE_JNA, times, Native::getDefaultStringEncoding), executor);
+    CompletableFuture<Void> extract =
+      CompletableFuture.runAsync(() -> measure(PHASE_EXTRACT, times, PtyUtil::extractNativeFiles), executor);
+    CompletableFuture<Void> all;
+    if (Platform.isWindows()) {
+      all = CompletableFuture.allOf(jna, extract);
+    }
+    else {
+      CompletableFuture<Void> libpty =
+        jna.runAfterBothAsync(extract, () -> measure(PHASE_LIBPTY, times, PtyHelpers::loadPtyLibrary), executor);
+      CompletableFuture<Void> libc =
+        jna.thenRunAsync(() -> measure(PHASE_LIBC, times, PtyHelpers::loadCLibrary), executor);
+      all = CompletableFuture.allOf(libpty, libc);
+    }
+    return all.thenApply(unused -> {
+      Map<String, Duration> result = new LinkedHashMap<>();
+      for (String phase : PHASES) {
+        Duration time = times.get(phase);
+        if (time != null) {
+          result.put(phase, time);
+        }
+      }
+      LOG.info("Preloaded pty4j: " + result);
+      return Collections.unmodifiableMap(result);
+    });
+  }
+
+  private static void measure(@NotNull String phase, @NotNull Map<String, Duration> times, @NotNull Runnable runnable) {
+    long startTimeNano = System.nanoTime();
+    runnable.run();
+    times.put(phase, Duration.ofNanos(System.nanoTime() - startTimeNano));
+  }
+}
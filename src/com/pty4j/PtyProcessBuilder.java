@@ -1,5 +1,6 @@
 package com.pty4j;
 
+import com.pty4j.unix.PtyPool;
 import com.pty4j.unix.UnixPtyProcess;
 import com.pty4j.windows.conpty.WinConPtyProcess;
 import com.pty4j.windows.cygwin.CygwinPtyProcess;
@@ -12,7 +13,11 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.function.LongConsumer;
 
 public class PtyProcessBuilder {
@@ -32,6 +37,9 @@ public class PtyProcessBuilder {
   private boolean myUnixOpenTtyToPreserveOutputAfterTermination = false;
   private boolean myUseWinConPty = false;
   private boolean mySpawnProcessUsingJdkOnMacIntel = true;
+  private boolean myUnixUseSharedReactor = false;
+  private boolean myUnixUseSpawnDaemon = false;
+  private PtyPool myUnixPtyPool;
   private LongConsumer mySuspendedProcessCallback;
 
   public PtyProcessBuilder() {
@@ -144,23 +152,96 @@ public class PtyProcessBuilder {
     return this;
   }
 
+  /**
+   * Reads the process output with the shared {@link com.pty4j.unix.PtyReactor} event loops instead of a blocking
+   * {@code poll()} per reading thread. Supported on Linux only, ignored on other systems.
+   * <p>
+   * The output can be read from {@link PtyProcess#getInputStream()} as usual,
+   * or pushed to a {@link com.pty4j.unix.PtyOutputConsumer} with {@link com.pty4j.unix.Pty#subscribe}.
+   */
+  @NotNull
+  public PtyProcessBuilder setUnixUseSharedReactor(boolean unixUseSharedReactor) {
+    myUnixUseSharedReactor = unixUseSharedReactor;
+    return this;
+  }
+
+  /**
+   * Forks the process from a small launcher daemon ({@code pty4j-unix-spawn-helper --daemon}) started once per JVM,
+   * so that the spawn cost doesn't grow with the JVM heap. The helper supporting the daemon is bundled for
+   * linux/x86-64 only for now; elsewhere the regular launch is used and a warning is logged once.
+   */
+  @NotNull
+  public PtyProcessBuilder setUnixUseSpawnDaemon(boolean unixUseSpawnDaemon) {
+    myUnixUseSpawnDaemon = unixUseSpawnDaemon;
+    return this;
+  }
+
+  /**
+   * Takes pre-opened pty pairs from the given pool instead of opening new ones. Ignored on Windows.
+   */
+  @NotNull
+  public PtyProcessBuilder setUnixPtyPool(@Nullable PtyPool unixPtyPool) {
+    myUnixPtyPool = unixPtyPool;
+    return this;
+  }
+
   @NotNull
   public PtyProcess start() throws IOException {
     if (myEnvironment == null) {
       myEnvironment = System.getenv();
     }
-    PtyProcessOptions options = new PtyProcessOptions(myCommand,
+    return start(createOptions(null, null, null, null, null, null));
+  }
+
+  /**
+   * Creates a template that starts processes with the current settings of this builder, see {@link PtyProcessTemplate}.
+   */
+  public @NotNull PtyProcessTemplate buildTemplate() {
+    PtyProcessBuilder snapshot = copy();
+    if (snapshot.myEnvironment == null) {
+      snapshot.myEnvironment = System.getenv();
+    }
+    return new PtyProcessTemplate(snapshot);
+  }
+
+  /**
+   * The directory and the initial size override the ones of this builder if not null.
+   */
+  @NotNull PtyProcessOptions createOptions(@Nullable String directory,
+                                           @Nullable Integer initialColumns,
+                                           @Nullable Integer initialRows,
+                                           @Nullable String[] commandArray,
+                                           @Nullable String[] environmentArray,
+                                           @Nullable String resolvedExecutable) {
+    return new PtyProcessOptions(myCommand,
             myEnvironment,
-            myDirectory,
+            directory != null ? directory : myDirectory,
             myRedirectErrorStream,
-            myInitialColumns,
-            myInitialRows,
+            initialColumns != null ? initialColumns : myInitialColumns,
+            initialRows != null ? initialRows : myInitialRows,
             myWindowsAnsiColorEnabled,
             myUnixOpenTtyToPreserveOutputAfterTermination,
-            mySpawnProcessUsingJdkOnMacIntel);
+            mySpawnProcessUsingJdkOnMacIntel,
+            myUnixUseSharedReactor,
+            myUnixUseSpawnDaemon,
+            myUnixPtyPool,
+            commandArray,
+            environmentArray,
+            resolvedExecutable);
+  }
+
+  @Nullable Command getCommand() {
+    return myCommand;
+  }
+
+  @NotNull Map<String, String> getEnvironment() {
+    return myEnvironment;
+  }
+
+  @NotNull PtyProcess start(@NotNull PtyProcessOptions options) throws IOException {
     if (Platform.isWindows()) {
       if (myCygwin) {
-        return new CygwinPtyProcess(myCommand.toArray(), myEnvironment, myDirectory, myLogFile, myConsole);
+        return new CygwinPtyProcess(myCommand.toArray(), myEnvironment, options.getDirectory(), myLogFile, myConsole);
       }
       if (myUseWinConPty && !myConsole) {
         try {
@@ -174,4 +255,86 @@ public class PtyProcessBuilder {
     }
     return new UnixPtyProcess(options, myConsole);
   }
+
+  /**
+   * Starts the process on the given executor, so that the calling thread isn't blocked by the native library
+   * loading, pty allocation and fork. Changes of this builder made after the call don't affect the started process.
+   *
+   * @return a future completed with the process once it's running, or exceptionally if it fails to start
+   */
+  public @NotNull CompletableFuture<PtyProcess> startAsync(@NotNull Executor executor) {
+    PtyProcessBuilder copy = copy();
+    CompletableFuture<PtyProcess> result = new CompletableFuture<>();
+    executor.execute(() -> {
+      try {
+        result.complete(copy.start());
+      }
+      catch (Throwable t) {
+        result.completeExceptionally(t);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Same as {@link #startAsync(Executor)} on a pool shared by all the builders and bounded by
+   * {@code pty4j.spawner.threads} system property (by default, the number of processors but no more than 4),
+   * so that a burst of starts doesn't run that many forks at once.
+   *
+   * @see #getAsyncStartQueueSize()
+   */
+  public @NotNull CompletableFuture<PtyProcess> startAsync() {
+    return startAsync(PtySpawner.getInstance().getExecutor());
+  }
+
+  /**
+   * @return the number of {@link #startAsync()} calls waiting for a free thread of the shared pool
+   */
+  public static int getAsyncStartQueueSize() {
+    return PtySpawner.getInstance().getQueueSize();
+  }
+
+  private @NotNull PtyProcessBuilder copy() {
+    PtyProcessBuilder copy = new PtyProcessBuilder();
+    copy.myCommand = myCommand;
+    copy.myEnvironment = myEnvironment;
+    copy.myDirectory = myDirectory;
+    copy.myConsole = myConsole;
+    copy.myCygwin = myCygwin;
+    copy.myLogFile = myLogFile;
+    copy.myRedirectErrorStream = myRedirectErrorStream;
+    copy.myInitialColumns = myInitialColumns;
+    copy.myInitialRows = myInitialRows;
+    copy.myWindowsAnsiColorEnabled = myWindowsAnsiColorEnabled;
+    copy.myUnixOpenTtyToPreserveOutputAfterTermination = myUnixOpenTtyToPreserveOutputAfterTermination;
+    copy.myUseWinConPty = myUseWinConPty;
+    copy.mySpawnProcessUsingJdkOnMacIntel = mySpawnProcessUsingJdkOnMacIntel;
+    copy.myUnixUseSharedReactor = myUnixUseSharedReactor;
+    copy.myUnixUseSpawnDaemon = myUnixUseSpawnDaemon;
+    copy.myUnixPtyPool = myUnixPtyPool;
+    copy.mySuspendedProcessCallback = mySuspendedProcessCallback;
+    return copy;
+  }
+
+  /**
+   * Starts the processes of all the builders on the shared pool of {@link #startAsync()} and returns once every one
+   * of them is running or has failed to start.
+   * <p>
+   * Up to {@code pty4j.spawner.threads} processes are started at a time, so a large batch doesn't fork that many
+   * children at once, and the batch takes about the sum of the start times divided by the pool size.
+   * With {@link #setUnixUseSpawnDaemon} the concurrent starts send their requests to the daemon independently,
+   * each of them waiting for its own reply.
+   *
+   * @return futures of the processes in the order of {@code builders}, all of them already completed;
+   * the future of a process that failed to start is completed exceptionally
+   */
+  public static @NotNull List<CompletableFuture<PtyProcess>> startAll(@NotNull List<PtyProcessBuilder> builders) {
+    List<CompletableFuture<PtyProcess>> results = new ArrayList<>(builders.size());
+    for (PtyProcessBuilder builder : builders) {
+      results.add(builder.startAsync());
+    }
+    // failures are left in the futures
+    CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).handle((ignored, t) -> null).join();
+    return results;
+  }
 }
@@ -1,5 +1,7 @@
 package com.pty4j;
 
+import com.pty4j.unix.PtyPool;
+import com.pty4j.util.PtyUtil;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -16,6 +18,12 @@ public class PtyProcessOptions {
   private final boolean myWindowsAnsiColorEnabled;
   private final boolean myUnixOpenTtyToPreserveOutputAfterTermination;
   private final boolean mySpawnProcessUsingJdkOnMacIntel;
+  private final boolean myUnixUseSharedReactor;
+  private final boolean myUnixUseSpawnDaemon;
+  private final PtyPool myUnixPtyPool;
+  private final String[] myCommandArray;
+  private final String[] myEnvironmentArray;
+  private final String myResolvedExecutable;
 
   PtyProcessOptions(@NotNull Command command,
                     @NotNull Map<String, String> environment,
@@ -25,7 +33,35 @@ public class PtyProcessOptions {
                     @Nullable Integer initialRows,
                     boolean windowsAnsiColorEnabled,
                     boolean unixOpenTtyToPreserveOutputAfterTermination,
-                    boolean spawnProcessUsingJdkOnMacIntel) {
+                    boolean spawnProcessUsingJdkOnMacIntel,
+                    boolean unixUseSharedReactor,
+                    boolean unixUseSpawnDaemon,
+                    @Nullable PtyPool unixPtyPool) {
+    this(command, environment, directory, redirectErrorStream, initialColumns, initialRows, windowsAnsiColorEnabled,
+         unixOpenTtyToPreserveOutputAfterTermination, spawnProcessUsingJdkOnMacIntel, unixUseSharedReactor,
+         unixUseSpawnDaemon, unixPtyPool, null, null, null);
+  }
+
+  /**
+   * @param commandArray       {@code command} converted to an array, or null to convert it on demand
+   * @param environmentArray   {@code environment} converted to {@code NAME=value} strings, or null to convert it on demand
+   * @param resolvedExecutable the path of the executable found in {@code PATH}, see {@link PtyProcessTemplate}
+   */
+  PtyProcessOptions(@NotNull Command command,
+                    @NotNull Map<String, String> environment,
+                    @Nullable String directory,
+                    boolean redirectErrorStream,
+                    @Nullable Integer initialColumns,
+                    @Nullable Integer initialRows,
+                    boolean windowsAnsiColorEnabled,
+                    boolean unixOpenTtyToPreserveOutputAfterTermination,
+                    boolean spawnProcessUsingJdkOnMacIntel,
+                    boolean unixUseSharedReactor,
+                    boolean unixUseSpawnDaemon,
+                    @Nullable PtyPool unixPtyPool,
+                    @Nullable String[] commandArray,
+                    @Nullable String[] environmentArray,
+                    @Nullable String resolvedExecutable) {
     this.command = command;
     myEnvironment = environment;
     myDirectory = directory;
@@ -35,6 +71,12 @@ public class PtyProcessOptions {
     myWindowsAnsiColorEnabled = windowsAnsiColorEnabled;
     myUnixOpenTtyToPreserveOutputAfterTermination = unixOpenTtyToPreserveOutputAfterTermination;
     mySpawnProcessUsingJdkOnMacIntel = spawnProcessUsingJdkOnMacIntel;
+    myUnixUseSharedReactor = unixUseSharedReactor;
+    myUnixUseSpawnDaemon = unixUseSpawnDaemon;
+    myUnixPtyPool = unixPtyPool;
+    myCommandArray = commandArray;
+    myEnvironmentArray = environmentArray;
+    myResolvedExecutable = resolvedExecutable;
   }
 
   /**
@@ -55,10 +97,31 @@ public class PtyProcessOptions {
     return command;
   }
 
+  /**
+   * @return the command as an array, which may be shared between processes and must not be modified
+   */
+  public @NotNull String[] getCommandArray() {
+    return myCommandArray != null ? myCommandArray : command.toArray();
+  }
+
   public @NotNull Map<String, String> getEnvironment() {
     return myEnvironment;
   }
 
+  /**
+   * @return the environment as {@code NAME=value} strings, which may be shared between processes and must not be modified
+   */
+  public @NotNull String[] getEnvironmentArray() {
+    return myEnvironmentArray != null ? myEnvironmentArray : PtyUtil.toStringArray(myEnvironment);
+  }
+
+  /**
+   * @return the full path of the executable if it's already known, so that it isn't looked up in {@code PATH} again
+   */
+  public @Nullable String getResolvedExecutable() {
+    return myResolvedExecutable;
+  }
+
   @Nullable
   public String getDirectory() {
     return myDirectory;
@@ -89,4 +152,16 @@ public class PtyProcessOptions {
   public boolean isSpawnProcessUsingJdkOnMacIntel() {
     return mySpawnProcessUsingJdkOnMacIntel;
   }
+
+  public boolean isUnixUseSharedReactor() {
+    return myUnixUseSharedReactor;
+  }
+
+  public boolean isUnixUseSpawnDaemon() {
+    return myUnixUseSpawnDaemon;
+  }
+
+  public @Nullable PtyPool getUnixPtyPool() {
+    return myUnixPtyPool;
+  }
 }
@@ -0,0 +1,64 @@
+package com.pty4j;
+
+import com.pty4j.unix.ExecutableCache;
+import com.pty4j.util.PtyUtil;
+import com.sun.jna.Platform;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+
+/**
+ * Starts processes with the same command and settings many times, created with {@link PtyProcessBuilder#buildTemplate()}.
+ * <p>
+ * The work that doesn't depend on a particular launch is done once: the command is parsed, the environment is
+ * converted to {@code NAME=value} strings, and on Unix {@code PATH} of that environment is taken out of it.
+ * The executable is looked up in that {@code PATH} on each start with {@link ExecutableCache}, so changes to
+ * the {@code PATH} directories are picked up as for any other start.
+ * <p>
+ * The template is immutable and can be used from any thread.
+ */
+public final class PtyProcessTemplate {
+
+  private final PtyProcessBuilder myBuilder;
+  private final String[] myCommandArray;
+  private final String[] myEnvironmentArray;
+  private final String myPath;
+
+  /**
+   * @param builder a copy of the builder that is never modified
+   */
+  PtyProcessTemplate(@NotNull PtyProcessBuilder builder) {
+    myBuilder = builder;
+    Command command = builder.getCommand();
+    myCommandArray = command != null ? command.toArray() : null;
+    myEnvironmentArray = PtyUtil.toStringArray(builder.getEnvironment());
+    myPath = !Platform.isWindows() ? builder.getEnvironment().get("PATH") : null;
+  }
+
+  /**
+   * Starts a process with the working directory and the initial size of the builder.
+   */
+  public @NotNull PtyProcess start() throws IOException {
+    return start(null, null);
+  }
+
+  /**
+   * Starts a process with the given working directory and initial size.
+   *
+   * @param directory   the working directory, or null to use the one of the builder
+   * @param initialSize the initial window size, or null to use the one of the builder
+   */
+  public @NotNull PtyProcess start(@Nullable String directory, @Nullable WinSize initialSize) throws IOException {
+    String resolvedExecutable = myPath != null && myCommandArray != null && myCommandArray.length > 0
+                                ? ExecutableCache.getInstance().find(myCommandArray[0], myPath)
+                                : null;
+    PtyProcessOptions options = myBuilder.createOptions(directory,
+                                                        initialSize != null ? initialSize.getColumns() : null,
+                                                        initialSize != null ? initialSize.getRows() : null,
+                                                        myCommandArray,
+                                                        myEnvironmentArray,
+                                                        resolvedExecutable);
+    return myBuilder.start(options);
+  }
+}
@@ -0,0 +1,162 @@
+package com.pty4j;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits how often the window size of a process is changed, e.g. while a terminal window is dragged.
+ * Each change sends SIGWINCH on Unix, and full-screen programs redraw on each of them.
+ * <p>
+ * A size equal to the current one is dropped. The first change after a quiet period is applied right away,
+ * and the following changes within the interval are merged: only the last requested size is applied
+ * when the interval is over. The dropped and merged changes are counted as suppressed.
+ * <p>
+ * The coalescer can be used from any thread. Deferred sizes are applied on a shared daemon thread.
+ */
+public final class PtyResizeCoalescer {
+
+  private static final Logger LOG = LoggerFactory.getLogger(PtyResizeCoalescer.class);
+
+  private final PtyProcess myProcess;
+  private final long myIntervalNanos;
+  private final Object myLock = new Object();
+  private WinSize myApplied;
+  private WinSize myPending;
+  private ScheduledFuture<?> myScheduled;
+  // identifies the current scheduled run, as a run cancelled by flush() may still start
+  private long myScheduledGeneration;
+  private long myLastAppliedNanos;
+  private long myAppliedCount;
+  private long mySuppressedCount;
+
+  /**
+   * @param maxResizesPerSecond the maximum rate of window size changes applied to the process
+   */
+  public PtyResizeCoalescer(@NotNull PtyProcess process, int maxResizesPerSecond) {
+    if (maxResizesPerSecond <= 0) {
+      throw new IllegalArgumentException("maxResizesPerSecond should be positive: " + maxResizesPerSecond);
+    }
+    myProcess = process;
+    myIntervalNanos = TimeUnit.SECONDS.toNanos(1) / maxResizesPerSecond;
+  }
+
+  /**
+   * Requests a window size change, applying it now or later.
+   *
+   * @throws IllegalStateException if the size is applied now and it fails, see {@link PtyProcess#setWinSize}
+   */
+  public void setWinSize(@NotNull WinSize winSize) {
+    synchronized (myLock) {
+      if (myPending != null) {
+        // the pending size is replaced in any case, and the new one is applied by the scheduled task
+        mySuppressedCount++;
+        if (winSize.equals(myApplied)) {
+          mySuppressedCount++;
+          myPending = null;
+        }
+        else {
+          myPending = winSize;
+        }
+        return;
+      }
+      if (winSize.equals(myApplied)) {
+        mySuppressedCount++;
+        return;
+      }
+      long delayNanos = myApplied != null ? myLastAppliedNanos + myIntervalNanos - System.nanoTime() : 0;
+      if (delayNanos <= 0) {
+        apply(winSize);
+      }
+      else {
+        myPending = winSize;
+        long generation = ++myScheduledGeneration;
+        myScheduled = Scheduler.INSTANCE.schedule(() -> applyScheduled(generation), delayNanos, TimeUnit.NANOSECONDS);
+      }
+    }
+  }
+
+  /**
+   * Applies the pending size right away, if any.
+   */
+  public void flush() {
+    synchronized (myLock) {
+      if (myScheduled != null) {
+        myScheduled.cancel(false);
+      }
+      applyPending();
+    }
+  }
+
+  /**
+   * @return the last requested size, applied or pending, or null if no size was requested
+   */
+  public @Nullable WinSize getRequestedWinSize() {
+    synchronized (myLock) {
+      return myPending != null ? myPending : myApplied;
+    }
+  }
+
+  public long getAppliedCount() {
+    synchronized (myLock) {
+      return myAppliedCount;
+    }
+  }
+
+  /**
+   * @return the number of requested sizes that were dropped as duplicates or replaced by later ones
+   */
+  public long getSuppressedCount() {
+    synchronized (myLock) {
+      return mySuppressedCount;
+    }
+  }
+
+  private void applyScheduled(long generation) {
+    synchronized (myLock) {
+      // a stale run would apply the next pending size before its interval is over
+      if (generation == myScheduledGeneration && myScheduled != null) {
+        applyPending();
+      }
+    }
+  }
+
+  private void applyPending() {
+    synchronized (myLock) {
+      myScheduled = null;
+      WinSize pending = myPending;
+      if (pending == null) {
+        return;
+      }
+      myPending = null;
+      try {
+        apply(pending);
+      }
+      catch (IllegalStateException e) {
+        LOG.debug("Cannot set window size " + pending + " of pid:" + myProcess.pid(), e);
+      }
+    }
+  }
+
+  private void apply(@NotNull WinSize winSize) {
+    // a failed size isn't remembered, so that requesting it again retries it
+    myProcess.setWinSize(winSize);
+    myApplied = winSize;
+    myLastAppliedNanos = System.nanoTime();
+    myAppliedCount++;
+  }
+
+  private static final class Scheduler {
+    private static final ScheduledExecutorService INSTANCE = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "Pty4J Resize Coalescer");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+}
@@ -0,0 +1,55 @@
+package com.pty4j;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The default executor of {@link PtyProcessBuilder#startAsync()}: a bounded pool, so that a burst of starts queues up
+ * instead of running that many forks at once.
+ * <p>
+ * The pool size is {@code pty4j.spawner.threads} system property, by default the number of available processors
+ * but no more than 4. Idle threads are stopped after a minute.
+ */
+final class PtySpawner {
+
+  private static final long KEEP_ALIVE_SECONDS = 60;
+
+  private final ThreadPoolExecutor myExecutor;
+
+  private PtySpawner() {
+    int defaultThreads = Math.min(4, Runtime.getRuntime().availableProcessors());
+    int threads = Math.max(1, Integer.getInteger("pty4j.spawner.threads", defaultThreads));
+    AtomicInteger threadNumber = new AtomicInteger();
+    myExecutor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                                        new LinkedBlockingQueue<>(), runnable -> {
+      Thread thread = new Thread(runnable, "Pty4J Spawner " + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    myExecutor.allowCoreThreadTimeOut(true);
+  }
+
+  static @NotNull PtySpawner getInstance() {
+    return Holder.INSTANCE;
+  }
+
+  @NotNull Executor getExecutor() {
+    return myExecutor;
+  }
+
+  /**
+   * @return the number of starts waiting for a free spawner thread
+   */
+  int getQueueSize() {
+    return myExecutor.getQueue().size();
+  }
+
+  private static final class Holder {
+    private static final PtySpawner INSTANCE = new PtySpawner();
+  }
+}
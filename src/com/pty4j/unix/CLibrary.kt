@@ -5,9 +5,12 @@ package com.pty4j.unix
 import com.sun.jna.*
 import com.sun.jna.platform.unix.LibCAPI.size_t
 import com.sun.jna.platform.unix.LibCAPI.ssize_t
+import org.slf4j.LoggerFactory
 
 internal object CLibrary {
 
+  private val LOG = LoggerFactory.getLogger(CLibrary::class.java)
+
   const val O_WRONLY: Int = 0x00000001
   const val O_RDWR: Int = 0x00000002
   const val POLLIN: Short = 0x00000001
@@ -29,8 +32,37 @@ internal object CLibrary {
 
   const val ENOTTY: Int = 25 // Not a typewriter / "Inappropriate ioctl for device" (errno.h)
 
+  // Linux-only epoll(7) constants, see <sys/epoll.h>
+  const val EPOLLIN: Int = 0x001
+  const val EPOLLERR: Int = 0x008
+  const val EPOLLHUP: Int = 0x010
+  const val EPOLLONESHOT: Int = 1 shl 30
+  const val EPOLL_CTL_ADD: Int = 1
+  const val EPOLL_CTL_DEL: Int = 2
+  const val EPOLL_CTL_MOD: Int = 3
+  const val EPOLL_CLOEXEC: Int = 0x80000
+
+  // packed on x86-64 by the kernel headers; on 32-bit x86, uint64_t is 4-byte aligned, so the layout is the same
+  private val EPOLL_EVENT_PACKED: Boolean = Platform.ARCH == "x86-64" || Platform.ARCH == "x86"
+
+  /**
+   * `struct epoll_event { uint32_t events; uint64_t data; }` takes 12 bytes with `data` at offset 4 on x86 and x86-64,
+   * and 16 bytes with `data` at offset 8 on all other architectures.
+   */
+  @JvmField
+  val EPOLL_EVENT_SIZE: Int = if (EPOLL_EVENT_PACKED) 12 else 16
+
+  @JvmField
+  val EPOLL_EVENT_DATA_OFFSET: Int = if (EPOLL_EVENT_PACKED) 4 else 8
+
   private val libc: CLibraryNative = Native.load(Platform.C_LIBRARY_NAME, CLibraryNative::class.java)
 
+  private val backend: CLibraryBackend = createBackend()
+
+  @JvmStatic
+  val backendName: String
+    get() = backend.name
+
   @JvmStatic
   fun open(path: String, flags: Int): Int = libc.open(path, flags)
 
@@ -43,12 +75,30 @@ internal object CLibrary {
     return result.toInt()
   }
 
+  @JvmStatic
+  fun read(fd: Int, buf: Pointer, len: Int): Int = backend.read(fd, Pointer.nativeValue(buf), len.toLong()).toInt()
+
   @JvmStatic
   fun write(fd: Int, buf: ByteArray, len: Int): Int {
     val result = libc.write(fd, buf, size_t(len.toLong()))
     return result.toInt()
   }
 
+  @JvmStatic
+  fun write(fd: Int, buf: Pointer, len: Int): Int = backend.write(fd, Pointer.nativeValue(buf), len.toLong()).toInt()
+
+  /**
+   * @param iov array of `struct iovec { void *iov_base; size_t iov_len; }`, see [IOVEC_SIZE]
+   */
+  @JvmStatic
+  fun readv(fd: Int, iov: Pointer, iovcnt: Int): Int = backend.readv(fd, Pointer.nativeValue(iov), iovcnt).toInt()
+
+  @JvmStatic
+  fun writev(fd: Int, iov: Pointer, iovcnt: Int): Int = backend.writev(fd, Pointer.nativeValue(iov), iovcnt).toInt()
+
+  @JvmField
+  val IOVEC_SIZE: Int = Native.POINTER_SIZE + Native.SIZE_T_SIZE
+
   @JvmStatic
   fun pipe(fds: IntArray): Int = libc.pipe(fds)
 
@@ -79,10 +129,148 @@ internal object CLibrary {
     return ret
   }
 
+  /**
+   * Same as [poll], but takes a native array of `struct pollfd` (see [POLLFD_SIZE]) that can be reused across calls.
+   */
+  @JvmStatic
+  fun poll(fds: Pointer, nfds: Int, timeout: Int): Int = backend.poll(Pointer.nativeValue(fds), nfds, timeout)
+
+  const val POLLFD_SIZE: Int = 8
+
   @JvmStatic
   fun select(nfds: Int, readfds: FDSet): Int {
     return libc.select(nfds, readfds as fd_set, null, null, null)
   }
+
+  // Linux-only, the same number on all architectures, see <asm-generic/unistd.h>
+  private const val SYS_PIDFD_OPEN: Long = 434
+
+  /**
+   * Opens a file descriptor referring to the process [pid] (Linux 5.3+), which becomes readable when the process
+   * terminates. Returns -1 with `errno` set to `ENOSYS` on older kernels.
+   */
+  @JvmStatic
+  fun pidfdOpen(pid: Int): Int = libc.syscall(NativeLong(SYS_PIDFD_OPEN), pid, 0).toInt()
+
+  /**
+   * `TIOCGPTPEER` is `_IO('T', 0x41)`, which has a different encoding on powerpc and mips, see <asm-generic/ioctl.h>
+   */
+  private val TIOCGPTPEER: Long = when {
+    Platform.ARCH.startsWith("ppc") || Platform.ARCH.startsWith("mips") -> 0x20005441
+    else -> 0x5441
+  }
+
+  /**
+   * Thread-safe variant of `ptsname()` (Linux only): returns the name of the slave of the pty [master],
+   * or null on failure.
+   */
+  @JvmStatic
+  fun ptsnameR(master: Int): String? {
+    val buf = ByteArray(128)
+    return if (libc.ptsname_r(master, buf, size_t(buf.size.toLong())) == 0) Native.toString(buf) else null
+  }
+
+  /**
+   * Opens the slave of the pty [master] with the `TIOCGPTPEER` ioctl (Linux 4.13+), without looking up its path.
+   * Returns -1 with `errno` set on failure, e.g. on older kernels.
+   */
+  @JvmStatic
+  fun openPtyPeer(master: Int, flags: Int): Int = libc.ioctl(master, NativeLong(TIOCGPTPEER), flags)
+
+  @JvmStatic
+  fun epollCreate(): Int = libc.epoll_create1(EPOLL_CLOEXEC)
+
+  /**
+   * Adds, modifies or removes [fd] in the interest list of [epfd].
+   * [data] is reported back by [epollWait] for this descriptor.
+   */
+  @JvmStatic
+  fun epollCtl(epfd: Int, op: Int, fd: Int, events: Int, data: Long): Int {
+    val event = Memory(EPOLL_EVENT_SIZE.toLong())
+    setEpollEvent(event, events, data)
+    return epollCtl(epfd, op, fd, event)
+  }
+
+  /**
+   * Same as [epollCtl], but takes a prepared `struct epoll_event` (see [setEpollEvent]) that can be reused across calls.
+   */
+  @JvmStatic
+  fun epollCtl(epfd: Int, op: Int, fd: Int, event: Pointer): Int = backend.epollCtl(epfd, op, fd, Pointer.nativeValue(event))
+
+  /**
+   * @return `data` of the event at [index] in the array filled by [epollWait]
+   */
+  @JvmStatic
+  fun getEpollEventData(events: Pointer, index: Int): Long =
+    events.getLong(index.toLong() * EPOLL_EVENT_SIZE + EPOLL_EVENT_DATA_OFFSET)
+
+  @JvmStatic
+  fun setEpollEvent(event: Pointer, events: Int, data: Long) {
+    event.setInt(0, events)
+    if (EPOLL_EVENT_DATA_OFFSET > 4) {
+      event.setInt(4, 0)
+    }
+    event.setLong(EPOLL_EVENT_DATA_OFFSET.toLong(), data)
+  }
+
+  @JvmStatic
+  fun epollWait(epfd: Int, events: Pointer, maxEvents: Int, timeout: Int): Int =
+    backend.epollWait(epfd, Pointer.nativeValue(events), maxEvents, timeout)
+
+  private fun createBackend(): CLibraryBackend {
+    val requested = System.getProperty("pty4j.native.backend")
+    if (requested != null) {
+      val backend = when (requested) {
+        "ffm" -> createFfmBackend(false)
+        "direct" -> DirectCLibrary.create()
+        "jna" -> JnaCLibraryBackend(libc)
+        else -> null
+      }
+      if (backend != null) {
+        return backend
+      }
+      LOG.warn("Native backend '$requested' is not available, falling back to the default one")
+    }
+    return createFfmBackend(true) ?: DirectCLibrary.create() ?: JnaCLibraryBackend(libc)
+  }
+
+  /**
+   * The FFM backend is compiled for JDK 22+ and is present in the multi-release jar only.
+   */
+  private fun createFfmBackend(requireNativeAccess: Boolean): CLibraryBackend? {
+    if (Runtime.version().feature() < 22) return null
+    return try {
+      val factory = Class.forName("com.pty4j.unix.FfmCLibrary").getDeclaredMethod("create", Boolean::class.javaPrimitiveType)
+      factory.isAccessible = true
+      factory.invoke(null, requireNativeAccess) as CLibraryBackend?
+    }
+    catch (e: ClassNotFoundException) {
+      null
+    }
+    catch (t: Throwable) {
+      LOG.warn("Cannot create FFM native backend", t)
+      null
+    }
+  }
+}
+
+private class JnaCLibraryBackend(private val libc: CLibraryNative) : CLibraryBackend {
+  override fun getName(): String = "jna"
+
+  override fun read(fd: Int, buf: Long, count: Long): Long = libc.read(fd, Pointer(buf), size_t(count)).toLong()
+
+  override fun write(fd: Int, buf: Long, count: Long): Long = libc.write(fd, Pointer(buf), size_t(count)).toLong()
+
+  override fun readv(fd: Int, iov: Long, iovcnt: Int): Long = libc.readv(fd, Pointer(iov), iovcnt).toLong()
+
+  override fun writev(fd: Int, iov: Long, iovcnt: Int): Long = libc.writev(fd, Pointer(iov), iovcnt).toLong()
+
+  override fun poll(fds: Long, nfds: Int, timeout: Int): Int = libc.poll(Pointer(fds), nfds, timeout)
+
+  override fun epollCtl(epfd: Int, op: Int, fd: Int, event: Long): Int = libc.epoll_ctl(epfd, op, fd, Pointer(event))
+
+  override fun epollWait(epfd: Int, events: Long, maxEvents: Int, timeout: Int): Int =
+    libc.epoll_wait(epfd, Pointer(events), maxEvents, timeout)
 }
 
 internal class Pollfd(val fd: Int, val events: Short) {
@@ -100,17 +288,47 @@ private interface CLibraryNative : Library {
   // https://pubs.opengroup.org/onlinepubs/009604599/functions/read.html
   fun read(fd: Int, buf: ByteArray, len: size_t): ssize_t
 
+  fun read(fd: Int, buf: Pointer, len: size_t): ssize_t
+
   // https://pubs.opengroup.org/onlinepubs/009695399/functions/write.html
   fun write(fd: Int, buf: ByteArray, len: size_t): ssize_t
 
+  fun write(fd: Int, buf: Pointer, len: size_t): ssize_t
+
+  // https://pubs.opengroup.org/onlinepubs/009695399/functions/readv.html
+  fun readv(fd: Int, iov: Pointer, iovcnt: Int): ssize_t
+
+  // https://pubs.opengroup.org/onlinepubs/009695399/functions/writev.html
+  fun writev(fd: Int, iov: Pointer, iovcnt: Int): ssize_t
+
   // https://pubs.opengroup.org/onlinepubs/009695399/functions/pipe.html
   fun pipe(fds: IntArray): Int
 
   // https://pubs.opengroup.org/onlinepubs/009604599/functions/poll.html
   fun poll(pollfds: PollfdStructureByReference, nfds: Int, timeout: Int): Int
 
+  fun poll(pollfds: Pointer, nfds: Int, timeout: Int): Int
+
   // https://pubs.opengroup.org/onlinepubs/7908799/xsh/select.html
   fun select(nfds: Int, readfds: fd_set?, writefds: fd_set?, errorfds: fd_set?, timeout: timeval?): Int
+
+  // https://man7.org/linux/man-pages/man2/syscall.2.html
+  fun syscall(number: NativeLong, vararg args: Any): NativeLong
+
+  // https://man7.org/linux/man-pages/man3/ptsname_r.3.html
+  fun ptsname_r(fd: Int, buf: ByteArray, buflen: size_t): Int
+
+  // https://man7.org/linux/man-pages/man2/ioctl.2.html
+  fun ioctl(fd: Int, request: NativeLong, vararg args: Any): Int
+
+  // https://man7.org/linux/man-pages/man2/epoll_create.2.html
+  fun epoll_create1(flags: Int): Int
+
+  // https://man7.org/linux/man-pages/man2/epoll_ctl.2.html
+  fun epoll_ctl(epfd: Int, op: Int, fd: Int, event: Pointer): Int
+
+  // https://man7.org/linux/man-pages/man2/epoll_wait.2.html
+  fun epoll_wait(epfd: Int, events: Pointer, maxevents: Int, timeout: Int): Int
 }
 
 // https://pubs.opengroup.org/onlinepubs/009604599/basedefs/poll.h.html
@@ -0,0 +1,32 @@
+package com.pty4j.unix;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Native implementation of the libc functions called on the hot read/write path, see {@link CLibrary}.
+ * <p>
+ * Buffers are passed as native addresses, so that implementations don't depend on JNA types.
+ * A failed call returns -1 and leaves its errno available via {@link CLibrary#errno()}.
+ * <p>
+ * The backend is chosen once by {@code pty4j.native.backend} system property: {@code ffm}, {@code direct} or {@code jna}.
+ * By default, {@code ffm} is used on JDK 22+ if native access is enabled for pty4j, then {@code direct} on 64-bit
+ * platforms, then {@code jna}.
+ */
+interface CLibraryBackend {
+
+  @NotNull String getName();
+
+  long read(int fd, long buf, long count);
+
+  long write(int fd, long buf, long count);
+
+  long readv(int fd, long iov, int iovcnt);
+
+  long writev(int fd, long iov, int iovcnt);
+
+  int poll(long fds, int nfds, int timeout);
+
+  int epollCtl(int epfd, int op, int fd, long event);
+
+  int epollWait(int epfd, long events, int maxEvents, int timeout);
+}
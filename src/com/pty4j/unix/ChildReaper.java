@@ -0,0 +1,147 @@
+package com.pty4j.unix;
+
+import com.pty4j.util.LazyValue;
+import com.sun.jna.Memory;
+import com.sun.jna.Platform;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+/**
+ * Waits for termination of all pty child processes with a single shared thread (Linux 5.3+ only).
+ * <p>
+ * Without it, every {@link UnixPtyProcess} starts its own reaper thread that forks the child and then stays blocked
+ * in {@code waitpid()} for the lifetime of the child. The shared reaper opens each child as a pidfd, waits for all
+ * of them with one epoll, and reaps only the children that have terminated. The children are forked on the
+ * caller's thread.
+ * <p>
+ * Used by default where pidfds are supported; {@code pty4j.shared.reaper=false} system property switches back to
+ * a reaper thread per process.
+ */
+final class ChildReaper implements Runnable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ChildReaper.class);
+
+  private static final int MAX_EVENTS = 64;
+
+  private static final LazyValue<ChildReaper> INSTANCE = new LazyValue<>(ChildReaper::new);
+  // terminated children that are reported by epoll, but not reaped yet
+  private static final AtomicInteger BACKLOG = new AtomicInteger();
+
+  private final int myEpollFd;
+  private final Memory myEvents = new Memory((long)MAX_EVENTS * CLibrary.EPOLL_EVENT_SIZE);
+  // pidfd -> child; pidfds are closed only by the reaper thread after removal, so they can't be reused while mapped
+  private final Map<Integer, Child> myChildren = new ConcurrentHashMap<>();
+
+  private ChildReaper() throws IOException {
+    int pidfd = CLibrary.pidfdOpen((int)ProcessHandle.current().pid());
+    if (pidfd < 0) {
+      throw new UnixPtyException("pidfd_open is not supported", CLibrary.errno());
+    }
+    CLibrary.close(pidfd);
+    myEpollFd = CLibrary.epollCreate();
+    if (myEpollFd < 0) {
+      throw new UnixPtyException("epoll_create1 failed", CLibrary.errno());
+    }
+    Thread thread = new Thread(this, "Pty4J Child Reaper");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * @return the shared reaper, or null if it's disabled or not supported by the OS
+   */
+  static @Nullable ChildReaper getInstance() {
+    if (!Platform.isLinux() || !Boolean.parseBoolean(System.getProperty("pty4j.shared.reaper", "true"))) {
+      return null;
+    }
+    try {
+      return INSTANCE.getValue();
+    }
+    catch (Throwable t) {
+      LOG.debug("Shared child reaper is not available", t);
+      return null;
+    }
+  }
+
+  /**
+   * @return the number of terminated children that haven't been reaped yet, see {@link PtyMetrics#getReaperBacklog()}
+   */
+  static int getBacklog() {
+    return BACKLOG.get();
+  }
+
+  /**
+   * Starts watching the child process. {@code onExit} is called on the reaper thread with the exit code once the child
+   * has terminated and has been reaped. It should return quickly.
+   *
+   * @return false if the child cannot be watched, then the caller should wait for it on its own
+   */
+  boolean register(int pid, @NotNull IntConsumer onExit) {
+    int pidfd = CLibrary.pidfdOpen(pid);
+    if (pidfd < 0) {
+      LOG.warn("pidfd_open failed for pid=" + pid + ", errno=" + CLibrary.errno());
+      return false;
+    }
+    myChildren.put(pidfd, new Child(pid, onExit));
+    if (CLibrary.epollCtl(myEpollFd, CLibrary.EPOLL_CTL_ADD, pidfd, CLibrary.EPOLLIN, pidfd) != 0) {
+      LOG.warn("Cannot watch pid=" + pid + ", errno=" + CLibrary.errno());
+      myChildren.remove(pidfd);
+      CLibrary.close(pidfd);
+      return false;
+    }
+    return true;
+  }
+
+  @Override
+  public void run() {
+    while (true) {
+      int count = CLibrary.epollWait(myEpollFd, myEvents, MAX_EVENTS, -1);
+      if (count < 0) {
+        int errno = CLibrary.errno();
+        if (errno == CLibrary.EINTR) continue;
+        LOG.error("epoll_wait failed, errno=" + errno + ", shared child reaper stopped");
+        return;
+      }
+      BACKLOG.set(count);
+      for (int i = 0; i < count; i++) {
+        int pidfd = (int)CLibrary.getEpollEventData(myEvents, i);
+        Child child = myChildren.remove(pidfd);
+        if (child != null) {
+          CLibrary.epollCtl(myEpollFd, CLibrary.EPOLL_CTL_DEL, pidfd, 0, pidfd);
+          CLibrary.close(pidfd);
+          reap(child);
+        }
+        BACKLOG.decrementAndGet();
+      }
+    }
+  }
+
+  private static void reap(@NotNull Child child) {
+    try {
+      // the child has terminated, so it doesn't block
+      int exitCode = PtyHelpers.getPtyExecutor().waitForProcessExitAndGetExitCode(child.myPid);
+      child.myOnExit.accept(exitCode);
+    }
+    catch (Throwable t) {
+      LOG.error("Failed to handle termination of pid=" + child.myPid, t);
+    }
+  }
+
+  private static final class Child {
+    private final int myPid;
+    private final IntConsumer myOnExit;
+
+    private Child(int pid, @NotNull IntConsumer onExit) {
+      myPid = pid;
+      myOnExit = onExit;
+    }
+  }
+}
@@ -0,0 +1,102 @@
+package com.pty4j.unix;
+
+import com.sun.jna.Native;
+import com.sun.jna.NativeLibrary;
+import com.sun.jna.Platform;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link CLibraryBackend} on top of JNA direct mapping.
+ * <p>
+ * Unlike the interface mapping used by {@link CLibrary}, direct-mapped calls box no arguments and allocate nothing
+ * on the Java heap. Both {@code size_t} and pointers are mapped to {@code long}, so it's available on 64-bit
+ * platforms only.
+ */
+final class DirectCLibrary implements CLibraryBackend {
+
+  private static final Logger LOG = LoggerFactory.getLogger(DirectCLibrary.class);
+
+  private DirectCLibrary() {
+  }
+
+  static @Nullable CLibraryBackend create() {
+    if (Native.SIZE_T_SIZE != 8 || Native.POINTER_SIZE != 8) {
+      return null;
+    }
+    try {
+      NativeLibrary libc = NativeLibrary.getInstance(Platform.C_LIBRARY_NAME);
+      Native.register(Libc.class, libc);
+      if (Platform.isLinux()) {
+        Native.register(LinuxLibc.class, libc);
+      }
+      return new DirectCLibrary();
+    }
+    catch (Throwable t) {
+      LOG.warn("Cannot register direct-mapped libc functions", t);
+      return null;
+    }
+  }
+
+  @Override
+  public @NotNull String getName() {
+    return "direct";
+  }
+
+  @Override
+  public long read(int fd, long buf, long count) {
+    return Libc.read(fd, buf, count);
+  }
+
+  @Override
+  public long write(int fd, long buf, long count) {
+    return Libc.write(fd, buf, count);
+  }
+
+  @Override
+  public long readv(int fd, long iov, int iovcnt) {
+    return Libc.readv(fd, iov, iovcnt);
+  }
+
+  @Override
+  public long writev(int fd, long iov, int iovcnt) {
+    return Libc.writev(fd, iov, iovcnt);
+  }
+
+  @Override
+  public int poll(long fds, int nfds, int timeout) {
+    return Libc.poll(fds, nfds, timeout);
+  }
+
+  @Override
+  public int epollCtl(int epfd, int op, int fd, long event) {
+    return LinuxLibc.epoll_ctl(epfd, op, fd, event);
+  }
+
+  @Override
+  public int epollWait(int epfd, long events, int maxEvents, int timeout) {
+    return LinuxLibc.epoll_wait(epfd, events, maxEvents, timeout);
+  }
+
+  @SuppressWarnings("SpellCheckingInspection")
+  private static final class Libc {
+    static native long read(int fd, long buf, long count);
+
+    static native long write(int fd, long buf, long count);
+
+    static native long readv(int fd, long iov, int iovcnt);
+
+    static native long writev(int fd, long iov, int iovcnt);
+
+    static native int poll(long fds, int nfds, int timeout);
+  }
+
+  @SuppressWarnings("SpellCheckingInspection")
+  private static final class LinuxLibc {
+    static native int epoll_ctl(int epfd, int op, int fd, long event);
+
+    static native int epoll_wait(int epfd, long events, int maxevents, int timeout);
+  }
+}
@@ -0,0 +1,163 @@
+package com.pty4j.unix;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the lookup of executables in {@code PATH}, which {@code pfind()} of libpty otherwise repeats for every start
+ * with an {@code access()} call per directory.
+ * <p>
+ * Entries are keyed by the value of {@code PATH} and the name. An entry is revalidated at most once per
+ * {@code pty4j.executable.cache.revalidate.ms} (1000 by default): it's dropped if the modification time of any
+ * directory it depends on has changed, i.e. a directory before the found one or the found one itself.
+ * <p>
+ * Not found executables aren't cached, as e.g. {@code chmod +x} doesn't change the modification time of the directory:
+ * the name is passed to {@code pfind()} as is, which makes the final decision.
+ * <p>
+ * Only lookups that give absolute paths are cached. The cache can be disabled with
+ * {@code pty4j.executable.cache=false}.
+ */
+public final class ExecutableCache {
+
+  private static final int MAX_SIZE = 256;
+
+  private static final ExecutableCache INSTANCE = new ExecutableCache();
+
+  private final boolean myEnabled = Boolean.parseBoolean(System.getProperty("pty4j.executable.cache", "true"));
+  private final long myRevalidateIntervalNanos =
+    TimeUnit.MILLISECONDS.toNanos(Long.getLong("pty4j.executable.cache.revalidate.ms", 1000));
+  private final Map<String, ExecutableCache.Entry> myEntries = new LinkedHashMap<>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, ExecutableCache.Entry> eldest) {
+      return size() > MAX_SIZE;
+    }
+  };
+  private final AtomicLong myHits = new AtomicLong();
+  private final AtomicLong myMisses = new AtomicLong();
+
+  private ExecutableCache() {
+  }
+
+  public static @NotNull ExecutableCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * @return the absolute path of {@code name} found in {@code path}, or null if it's not found or the lookup
+   * should be left to {@code pfind()}: the name is a path, {@code path} has relative directories, or the cache is disabled
+   */
+  public @Nullable String find(@NotNull String name, @Nullable String path) {
+    if (!myEnabled || path == null || name.isEmpty() || name.startsWith("/") || name.startsWith(".")) {
+      return null;
+    }
+    String key = path + '\0' + name;
+    Entry entry;
+    synchronized (myEntries) {
+      entry = myEntries.get(key);
+    }
+    if (entry != null && entry.isValid(myRevalidateIntervalNanos)) {
+      myHits.incrementAndGet();
+      return entry.myExecutable;
+    }
+    myMisses.incrementAndGet();
+    entry = lookup(name, path);
+    if (entry != null) {
+      synchronized (myEntries) {
+        myEntries.put(key, entry);
+      }
+    }
+    return entry != null ? entry.myExecutable : null;
+  }
+
+  /**
+   * Same as {@link #find(String, String)} with {@code PATH} taken from {@code NAME=value} environment strings.
+   */
+  @Nullable String find(@NotNull String name, @NotNull String[] environment) {
+    for (String variable : environment) {
+      if (variable.startsWith("PATH=")) {
+        return find(name, variable.substring("PATH=".length()));
+      }
+    }
+    return null;
+  }
+
+  public long getHitCount() {
+    return myHits.get();
+  }
+
+  public long getMissCount() {
+    return myMisses.get();
+  }
+
+  /**
+   * @return the share of lookups served from the cache, from 0 to 1
+   */
+  public double getHitRate() {
+    long hits = myHits.get();
+    long total = hits + myMisses.get();
+    return total == 0 ? 0 : (double)hits / total;
+  }
+
+  public void clear() {
+    synchronized (myEntries) {
+      myEntries.clear();
+    }
+  }
+
+  /**
+   * @return the found executable, or null if it's not found or {@code path} has relative directories
+   */
+  private static @Nullable Entry lookup(@NotNull String name, @NotNull String path) {
+    String[] dirs = path.split(File.pathSeparator);
+    long[] modificationTimes = new long[dirs.length];
+    for (int i = 0; i < dirs.length; i++) {
+      File dir = new File(dirs[i]);
+      if (!dir.isAbsolute()) {
+        return null;
+      }
+      modificationTimes[i] = dir.lastModified();
+      File file = new File(dir, name);
+      if (file.isFile() && file.canExecute()) {
+        return new Entry(file.getPath(), dirs, modificationTimes, i + 1);
+      }
+    }
+    return null;
+  }
+
+  private static final class Entry {
+    private final String myExecutable;
+    private final String[] myDirs;
+    private final long[] myModificationTimes;
+    // the number of the directories the result depends on, from the start of PATH
+    private final int myDirCount;
+    private volatile long myValidatedAt;
+
+    private Entry(@NotNull String executable, @NotNull String[] dirs, long[] modificationTimes, int dirCount) {
+      myExecutable = executable;
+      myDirs = dirs;
+      myModificationTimes = modificationTimes;
+      myDirCount = dirCount;
+      myValidatedAt = System.nanoTime();
+    }
+
+    private boolean isValid(long revalidateIntervalNanos) {
+      long now = System.nanoTime();
+      if (now - myValidatedAt < revalidateIntervalNanos) {
+        return true;
+      }
+      for (int i = 0; i < myDirCount; i++) {
+        if (new File(myDirs[i]).lastModified() != myModificationTimes[i]) {
+          return false;
+        }
+      }
+      myValidatedAt = now;
+      return true;
+    }
+  }
+}
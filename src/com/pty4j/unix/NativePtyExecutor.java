@@ -3,9 +3,12 @@ package com.pty4j.unix;
 import com.pty4j.PtyProcess;
 import com.pty4j.WinSize;
 import com.sun.jna.Native;
+import com.sun.jna.NativeLibrary;
 import com.sun.jna.Structure;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.List;
 
@@ -14,16 +17,92 @@ import java.util.List;
  */
 class NativePtyExecutor implements PtyExecutor {
 
+  private static final Logger LOG = LoggerFactory.getLogger(NativePtyExecutor.class);
+
+  // see exec_pty.h
+  static final int EXEC_PTY_FORK = 0x1;
+  static final int EXEC_PTY_LAUNCH_FORK = 1;
+  static final int EXEC_PTY_LAUNCH_CLONE = 2;
+
   private final Pty4J myPty4j;
+  // false if libpty is older than exec_pty_ex, e.g. a bundled binary that hasn't been rebuilt yet
+  private final boolean myExecPtyExAvailable;
 
   NativePtyExecutor(@NotNull String libraryName) {
     myPty4j = Native.load(libraryName, Pty4J.class);
+    myExecPtyExAvailable = hasFunction(libraryName, "exec_pty_ex");
+    if (!myExecPtyExAvailable) {
+      LOG.info(libraryName + " doesn't export exec_pty_ex: children are forked, the initial window size is set " +
+               "from the parent and exec failures are reported without the failed step. Rebuild libpty from native/");
+    }
+  }
+
+  private static boolean hasFunction(@NotNull String libraryName, @NotNull String functionName) {
+    try {
+      NativeLibrary.getInstance(libraryName).getFunction(functionName);
+      return true;
+    }
+    catch (UnsatisfiedLinkError e) {
+      return false;
+    }
   }
 
   @Override
   public int execPty(String full_path, String[] argv, String[] envp, String dirpath, String pts_name, int fdm,
-                     String err_pts_name, int err_fdm, boolean console) {
-    return myPty4j.exec_pty(full_path, argv, envp, dirpath, pts_name, fdm, err_pts_name, err_fdm, console);
+                     String err_pts_name, int err_fdm, boolean console,
+                     @Nullable WinSize winSize) throws UnixPtyExecException {
+    if (myExecPtyExAvailable) {
+      // pty4j.launch.mechanism=fork forces the classic launch on Linux, see README.md
+      int flags = "fork".equals(System.getProperty("pty4j.launch.mechanism")) ? EXEC_PTY_FORK : 0;
+      return execPtyEx(full_path, argv, envp, dirpath, pts_name, fdm, err_pts_name, err_fdm, console, winSize, flags,
+                       new int[3]);
+    }
+    int pid = myPty4j.exec_pty(full_path, argv, envp, dirpath, pts_name, fdm, err_pts_name, err_fdm, console);
+    if (pid < 0) {
+      // old libpty reports the failures of the child by its exit code only
+      throw new UnixPtyExecException(full_path, dirpath, UnixPtyExecException.Step.UNKNOWN, 0);
+    }
+    if (winSize != null) {
+      initWindowSize(fdm, winSize);
+    }
+    return pid;
+  }
+
+  /**
+   * Calls {@code exec_pty_ex}, which should be available.
+   *
+   * @param status receives the failed step, its errno and the launch mechanism that was used
+   *               ({@link #EXEC_PTY_LAUNCH_FORK} or {@link #EXEC_PTY_LAUNCH_CLONE})
+   */
+  int execPtyEx(String full_path, String[] argv, String[] envp, String dirpath, String pts_name, int fdm,
+                String err_pts_name, int err_fdm, boolean console, @Nullable WinSize winSize, int flags,
+                int @NotNull [] status) throws UnixPtyExecException {
+    WinSizeStructure winSizeStructure = winSize != null ? new WinSizeStructure(winSize) : null;
+    int pid = myPty4j.exec_pty_ex(full_path, argv, envp, dirpath, pts_name, fdm, err_pts_name, err_fdm, console,
+                                  winSizeStructure, flags, status);
+    if (pid < 0) {
+      throw new UnixPtyExecException(full_path, dirpath, UnixPtyExecException.Step.fromNative(status[0]), status[1]);
+    }
+    return pid;
+  }
+
+  /**
+   * Sets the window size from the parent, when libpty is too old to set it in the child.
+   */
+  private void initWindowSize(int fdm, @NotNull WinSize winSize) {
+    // On OSX, there is a race condition with pty initialization
+    // If we call com.pty4j.unix.Pty.setTerminalSize(com.pty4j.WinSize) too early, we can get ENOTTY
+    for (int attempt = 0; attempt < 1000; attempt++) {
+      try {
+        setWindowSize(fdm, winSize, null);
+        break;
+      }
+      catch (UnixPtyException e) {
+        if (e.getErrno() != CLibrary.ENOTTY) {
+          break;
+        }
+      }
+    }
   }
 
   @Override
@@ -79,6 +158,10 @@ class NativePtyExecutor implements PtyExecutor {
     int exec_pty(String full_path, String[] argv, String[] envp, String dirpath, String pts_name, int fdm,
                  String err_pts_name, int err_fdm, boolean console);
 
+    int exec_pty_ex(String full_path, String[] argv, String[] envp, String dirpath, String pts_name, int fdm,
+                    String err_pts_name, int err_fdm, boolean console, WinSizeStructure win_size, int flags,
+                    int[] status);
+
     int wait_for_child_process_exit(int child_pid);
 
     int get_window_size(int fd, WinSizeStructure win_size);
@@ -43,13 +43,10 @@ class PTYInputStream extends InputStream {
     if (len == 0) {
       return 0;
     }
-    byte[] tmpBuf = new byte[len];
-    len = myPty.read(tmpBuf, len);
+    len = myPty.read(buf, off, len);
     if (len <= 0) {
       return -1;
     }
-    System.arraycopy(tmpBuf, 0, buf, off, len);
-
     return len;
   }
 
@@ -63,6 +60,6 @@ class PTYInputStream extends InputStream {
     if (myPty.isClosed()) {
       throw new IOException("File descriptor is closed");
     }
-    return 0;
+    return myPty.available();
   }
 }
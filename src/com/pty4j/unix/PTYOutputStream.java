@@ -25,9 +25,7 @@ class PTYOutputStream extends OutputStream {
     } else if (len == 0) {
       return;
     }
-    byte[] tmpBuf = new byte[len];
-    System.arraycopy(b, off, tmpBuf, off, len);
-    myPty.write(tmpBuf, len);
+    myPty.write(b, off, len);
   }
 
   @Override public void write(int b) throws IOException {
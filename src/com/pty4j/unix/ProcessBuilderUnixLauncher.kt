@@ -6,6 +6,8 @@ import com.pty4j.util.PtyUtil
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
 import java.io.File
+import java.io.IOException
+import java.util.concurrent.ConcurrentHashMap
 import kotlin.time.DurationUnit
 import kotlin.time.TimeSource
 
@@ -25,6 +27,7 @@ internal class ProcessBuilderUnixLauncher @Throws(Exception::class) constructor(
 
   init {
     val spawnHelper = PtyUtil.resolveNativeFile("pty4j-unix-spawn-helper")
+    val initSize = WinSize(initialColumns ?: 80, initialRows ?: 25)
     val builder = ProcessBuilder()
     builder.command(listOf(spawnHelper.absolutePath,
                            workingDirectory,
@@ -37,6 +40,11 @@ internal class ProcessBuilderUnixLauncher @Throws(Exception::class) constructor(
     val environment = builder.environment()
     environment.clear()
     environment.putAll(environmentMap)
+    val helperSetsSize = setsInitialWinSize(spawnHelper)
+    if (helperSetsSize) {
+      // the helper sets the initial size on the slave before executing the command and removes this variable
+      environment[INITIAL_WINSIZE_ENV] = "${initSize.columns},${initSize.rows}"
+    }
     builder.directory(File(workingDirectory))
     builder.redirectInput(ProcessBuilder.Redirect.from(File("/dev/null")))
     builder.redirectOutput(ProcessBuilder.Redirect.DISCARD)
@@ -48,9 +56,14 @@ internal class ProcessBuilderUnixLauncher @Throws(Exception::class) constructor(
     }
     process = builder.start()
 
-    initTermSize(pty, ptyProcess, WinSize(initialColumns ?: 80, initialRows ?: 25))
+    if (!helperSetsSize) {
+      initTermSize(pty, ptyProcess, initSize)
+    }
   }
 
+  /**
+   * Sets the size from the parent, for helpers built before [INITIAL_WINSIZE_ENV] was supported.
+   */
   private fun initTermSize(pty: Pty, ptyProcess: PtyProcess, initSize: WinSize) {
     // Pty will be fully initialized after `open(slave_name, O_RDWR)` in the child process.
     // Until it happens, resize attempts will fail with `ENOTTY`.
@@ -83,6 +96,34 @@ internal class ProcessBuilderUnixLauncher @Throws(Exception::class) constructor(
 
   companion object {
     private val LOG: Logger = LoggerFactory.getLogger(ProcessBuilderUnixLauncher::class.java)
+
+    private const val INITIAL_WINSIZE_ENV = "PTY4J_INITIAL_WINSIZE"
+
+    private val initialWinSizeSupport = ConcurrentHashMap<String, Boolean>()
+
+    /**
+     * Older helpers, e.g. a bundled binary that hasn't been rebuilt yet, would pass [INITIAL_WINSIZE_ENV] on
+     * to the command. A helper that reads it has the name of the variable among its strings.
+     */
+    private fun setsInitialWinSize(helper: File): Boolean = initialWinSizeSupport.computeIfAbsent(helper.absolutePath) {
+      try {
+        indexOf(helper.readBytes(), INITIAL_WINSIZE_ENV.toByteArray(Charsets.US_ASCII)) >= 0
+      }
+      catch (e: IOException) {
+        LOG.warn("Cannot read $helper", e)
+        false
+      }
+    }
+
+    private fun indexOf(data: ByteArray, pattern: ByteArray): Int {
+      outer@ for (i in 0..data.size - pattern.size) {
+        for (j in pattern.indices) {
+          if (data[i + j] != pattern[j]) continue@outer
+        }
+        return i
+      }
+      return -1
+    }
   }
 
 }
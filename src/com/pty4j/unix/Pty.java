@@ -9,6 +9,9 @@ package com.pty4j.unix;
 
 import com.pty4j.PtyProcess;
 import com.pty4j.WinSize;
+import com.sun.jna.Memory;
+import com.sun.jna.Platform;
+import com.sun.jna.Pointer;
 import kotlin.Pair;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -27,13 +30,30 @@ public final class Pty {
   private final String mySlaveName;
   private final PTYInputStream myIn;
   private final PTYOutputStream myOut;
+  private PtyChannel myChannel;
   private final Object myFDLock = new Object();
   private final Object mySelectLock = new Object();
+  private final Object myReadLock = new Object();
+  private final Object myWriteLock = new Object();
+  // guards the write end of the pipe, so that breakRead() never writes to a closed and reused fd
+  private final Object myPipeLock = new Object();
   private final int[] myPipe = new int[2];
+  private final boolean myUseReactor;
 
   private volatile int myMaster;
   private volatile int mySlaveFD;
 
+  private PtyReactor.Registration myRegistration;
+  private ReactorInputBuffer myReactorInput;
+  private boolean myReadBroken;
+  // null unless PtyMetrics are enabled
+  private volatile PtySessionMetrics myMetrics;
+  // native memory reused by every read and write to keep them allocation-free
+  private Memory myPollFds;
+  private Memory myReadBuffer;
+  private Memory myWriteBuffer;
+
+  private static final int BUFFER_SIZE = 16 * 1024;
   private static final boolean useSelect = isOSXLessThanOrEqualTo106();
 
   private static boolean isOSXLessThanOrEqualTo106() {
@@ -59,11 +79,32 @@ public final class Pty {
     this(console, false);
   }
 
+  Pty(boolean console, boolean openOpenTtyToPreserveOutputAfterTermination) throws IOException {
+    this(console, openOpenTtyToPreserveOutputAfterTermination, false);
+  }
+
   Pty(@SuppressWarnings("unused") boolean console,
-      boolean openOpenTtyToPreserveOutputAfterTermination) throws IOException {
-    Pair<Integer, String> masterSlave = openMaster();
-    myMaster = masterSlave.getFirst();
-    mySlaveName = masterSlave.getSecond();
+      boolean openOpenTtyToPreserveOutputAfterTermination,
+      boolean useReactor) throws IOException {
+    this(null, openOpenTtyToPreserveOutputAfterTermination, useReactor);
+  }
+
+  /**
+   * @param prepared a pty pair taken from a {@link PtyPool}, or null to open a new one
+   */
+  Pty(@Nullable PtyPool.PreparedPty prepared,
+      boolean openOpenTtyToPreserveOutputAfterTermination,
+      boolean useReactor) throws IOException {
+    myUseReactor = useReactor && PtyReactor.isSupported();
+    if (prepared != null) {
+      myMaster = prepared.myMaster;
+      mySlaveName = prepared.mySlaveName;
+    }
+    else {
+      Pair<Integer, String> masterSlave = openMaster();
+      myMaster = masterSlave.getFirst();
+      mySlaveName = masterSlave.getSecond();
+    }
 
     if (mySlaveName == null) {
       throw new IOException("Util.exception.cannotCreatePty");
@@ -74,11 +115,29 @@ public final class Pty {
     // until we've read all the output from it.
     //
     // See this report for details: https://developer.apple.com/forums/thread/663632
-    mySlaveFD = openOpenTtyToPreserveOutputAfterTermination ? CLibrary.open(mySlaveName, CLibrary.O_WRONLY) : -1;
+    mySlaveFD = openOpenTtyToPreserveOutputAfterTermination ? openSlave(myMaster, mySlaveName) : -1;
 
     myIn = new PTYInputStream(this);
     myOut = new PTYOutputStream(this);
-    CLibrary.pipe(myPipe);
+    if (myUseReactor) {
+      // the reactor doesn't need a wake-up pipe to interrupt reading
+      myPipe[0] = -1;
+      myPipe[1] = -1;
+      if (prepared != null) {
+        prepared.closePipe();
+      }
+    }
+    else if (prepared != null) {
+      myPipe[0] = prepared.myPipe[0];
+      myPipe[1] = prepared.myPipe[1];
+    }
+    else {
+      CLibrary.pipe(myPipe);
+    }
+  }
+
+  void setMetrics(@Nullable PtySessionMetrics metrics) {
+    myMetrics = metrics;
   }
 
   public String getSlaveName() {
@@ -97,6 +156,75 @@ public final class Pty {
     return myIn;
   }
 
+  /**
+   * Returns a channel reading from and writing to the master side of this Pty.
+   * Direct buffers are passed to the system calls as is, without copying.
+   */
+  public synchronized @NotNull PtyChannel getChannel() {
+    if (myChannel == null) {
+      myChannel = new PtyChannel(this);
+    }
+    return myChannel;
+  }
+
+  /**
+   * @return true if the output of this Pty is read by the shared {@link PtyReactor}
+   */
+  public boolean isReactorMode() {
+    return myUseReactor;
+  }
+
+  /**
+   * Delivers all the output of this Pty to the given consumer on a {@link PtyReactor} thread.
+   * The input stream of this Pty must not be used afterwards.
+   *
+   * @throws IllegalStateException if this Pty isn't in reactor mode or the output is already being consumed
+   */
+  public void subscribe(@NotNull PtyOutputConsumer consumer) throws IOException {
+    if (!myUseReactor) {
+      throw new IllegalStateException("Pty is not in reactor mode");
+    }
+    synchronized (myFDLock) {
+      if (myRegistration != null || myReactorInput != null) {
+        throw new IllegalStateException("Pty output is already consumed");
+      }
+      register(consumer);
+    }
+  }
+
+  private void register(@NotNull PtyOutputConsumer consumer) throws IOException {
+    int fd = myMaster;
+    if (fd == -1) {
+      consumer.onEof();
+      return;
+    }
+    myRegistration = PtyReactor.getInstance().register(fd, consumer, myMetrics);
+    if (myReadBroken) {
+      myRegistration.drainAndClose();
+    }
+  }
+
+  @NotNull ReactorInputBuffer getReactorInput() throws IOException {
+    synchronized (myFDLock) {
+      if (myReactorInput == null) {
+        if (myRegistration != null) {
+          throw new IllegalStateException("Pty output is consumed by a subscriber");
+        }
+        ReactorInputBuffer input = new ReactorInputBuffer();
+        register(input);
+        if (myRegistration != null) {
+          input.setRegistration(myRegistration);
+        }
+        myReactorInput = input;
+      }
+      return myReactorInput;
+    }
+  }
+
+  int available() throws IOException {
+    return myUseReactor ? getReactorInput().available() : 0;
+  }
+
   /**
    * Change terminal window size to given width and height.
    * <p>
@@ -106,6 +234,10 @@ public final class Pty {
    * @param winSize new window size
    */
   public void setWindowSize(@NotNull WinSize winSize, @Nullable PtyProcess process) throws UnixPtyException {
+    PtySessionMetrics metrics = myMetrics;
+    if (metrics != null) {
+      metrics.recordResize();
+    }
     PtyHelpers.getPtyExecutor().setWindowSize(myMaster, winSize, process);
   }
 
@@ -156,6 +288,10 @@ public final class Pty {
   }
 
   private static String ptsname(PtyHelpers.OSFacade m_jpty, int fdm) {
+    if (Platform.isLinux()) {
+      // no need to lock: ptsname_r() is thread-safe
+      return CLibrary.ptsnameR(fdm);
+    }
     synchronized (PTSNAME_LOCK) {
       // ptsname() function is not thread-safe: http://man7.org/linux/man-pages/man3/ptsname.3.html
       return m_jpty.ptsname(fdm);
@@ -163,6 +299,16 @@ public final class Pty {
   }
 
 
+  private static int openSlave(int master, @NotNull String slaveName) {
+    if (Platform.isLinux()) {
+      int fd = CLibrary.openPtyPeer(master, CLibrary.O_WRONLY | CLibrary.O_NOCTTY);
+      if (fd >= 0) {
+        return fd;
+      }
+    }
+    return CLibrary.open(slaveName, CLibrary.O_WRONLY);
+  }
+
   private Pair<Integer, String> openMaster() {
     return ptyMasterOpen();
   }
@@ -218,25 +364,99 @@ public final class Pty {
   }
 
   private int close0(int fd) throws IOException {
+    if (myUseReactor) {
+      if (myRegistration != null) {
+        myRegistration.close();
+      }
+      return CLibrary.close(fd);
+    }
     int ret = CLibrary.close(fd);
 
     breakRead();
 
     synchronized (mySelectLock) {
-      CLibrary.close(myPipe[0]);
-      CLibrary.close(myPipe[1]);
-      myPipe[0] = -1;
-      myPipe[1] = -1;
+      synchronized (myPipeLock) {
+        CLibrary.close(myPipe[0]);
+        CLibrary.close(myPipe[1]);
+        myPipe[0] = -1;
+        myPipe[1] = -1;
+      }
     }
 
     return ret;
   }
 
   void breakRead() {
-    CLibrary.write(myPipe[1], new byte[1], 1);
+    PtySessionMetrics metrics = myMetrics;
+    if (metrics != null) {
+      metrics.recordBreakRead();
+    }
+    if (myUseReactor) {
+      synchronized (myFDLock) {
+        myReadBroken = true;
+        if (myRegistration != null) {
+          myRegistration.drainAndClose();
+        }
+      }
+      return;
+    }
+    synchronized (myPipeLock) {
+      if (myPipe[1] != -1) {
+        CLibrary.write(myPipe[1], new byte[1], 1);
+      }
+    }
+  }
+
+  int read(byte[] buf, int off, int len) throws IOException {
+    if (myUseReactor) {
+      return myMaster == -1 && myReactorInput == null ? -1 : getReactorInput().read(buf, off, len);
+    }
+    synchronized (myReadLock) {
+      int fd = awaitInput();
+      if (fd == -1) return -1;
+      if (myReadBuffer == null) {
+        myReadBuffer = new Memory(BUFFER_SIZE);
+      }
+      int count = recordRead(CLibrary.read(fd, myReadBuffer, Math.min(len, BUFFER_SIZE)));
+      if (count > 0) {
+        myReadBuffer.read(0, buf, off, count);
+      }
+      return count;
+    }
+  }
+
+  int read(@NotNull Pointer buf, int len) {
+    int fd = awaitInput();
+    return fd != -1 ? recordRead(CLibrary.read(fd, buf, len)) : -1;
   }
 
-  int read(byte[] buf, int len) throws IOException {
+  int readv(@NotNull Pointer iov, int iovcnt) {
+    int fd = awaitInput();
+    return fd != -1 ? recordRead(CLibrary.readv(fd, iov, iovcnt)) : -1;
+  }
+
+  private int recordRead(int count) {
+    PtySessionMetrics metrics = myMetrics;
+    if (metrics != null) {
+      metrics.recordRead(count);
+    }
+    return count;
+  }
+
+  private int recordWrite(int count) {
+    PtySessionMetrics metrics = myMetrics;
+    if (metrics != null) {
+      metrics.recordWrite(count);
+    }
+    return count;
+  }
+
+  /**
+   * Blocks until the master has some data to read or reading is interrupted by {@link #breakRead()}.
+   *
+   * @return the master fd that can be read without blocking, or -1 if there is nothing more to read
+   */
+  private int awaitInput() {
     int fd = myMaster;
     if (fd == -1) return -1;
 
@@ -246,21 +466,31 @@ public final class Pty {
 
       haveBytes = useSelect ? select(myPipe[0], fd) : poll(myPipe[0], fd);
     }
-
-    return haveBytes ? CLibrary.read(fd, buf, len) : -1;
+    PtySessionMetrics metrics = myMetrics;
+    if (metrics != null) {
+      metrics.recordPollWakeup();
+    }
+    return haveBytes ? fd : -1;
   }
 
-  @SuppressWarnings("SpellCheckingInspection")
-  private static boolean poll(int pipeFd, int fd) {
-    Pollfd[] poll_fds = new Pollfd[]{
-      new Pollfd(pipeFd, CLibrary.POLLIN),
-      new Pollfd(fd, CLibrary.POLLIN)
-    };
-    while (CLibrary.poll(poll_fds, -1) <= 0) {
+  private boolean poll(int pipeFd, int fd) {
+    Memory pollFds = myPollFds;
+    if (pollFds == null) {
+      myPollFds = pollFds = new Memory(2L * CLibrary.POLLFD_SIZE);
+    }
+    setPollFd(pollFds, 0, pipeFd);
+    setPollFd(pollFds, CLibrary.POLLFD_SIZE, fd);
+    while (CLibrary.poll(pollFds, 2, -1) <= 0) {
       int errno = CLibrary.errno();
       if (errno != CLibrary.EAGAIN && errno != CLibrary.EINTR) return false;
     }
-    return (poll_fds[1].getRevents() & CLibrary.POLLIN) != 0;
+    return (pollFds.getShort(CLibrary.POLLFD_SIZE + 6) & CLibrary.POLLIN) != 0;
+  }
+
+  private static void setPollFd(@NotNull Memory pollFds, long offset, int fd) {
+    pollFds.setInt(offset, fd);
+    pollFds.setShort(offset + 4, CLibrary.POLLIN);
+    pollFds.setShort(offset + 6, (short)0);
   }
 
   private static boolean select(int pipeFd, int fd) {
@@ -271,8 +501,39 @@ public final class Pty {
     return set.FD_ISSET(fd);
   }
 
-  int write(byte[] buf, int len) {
-    return CLibrary.write(myMaster, buf, len);
+  /**
+   * Writes all the bytes, unless writing fails.
+   *
+   * @return the number of bytes written, or -1 if nothing has been written
+   */
+  int write(byte[] buf, int off, int len) {
+    synchronized (myWriteLock) {
+      if (myWriteBuffer == null) {
+        myWriteBuffer = new Memory(BUFFER_SIZE);
+      }
+      int written = 0;
+      while (written < len) {
+        int chunk = Math.min(len - written, BUFFER_SIZE);
+        myWriteBuffer.write(0, buf, off + written, chunk);
+        int count = CLibrary.write(myMaster, myWriteBuffer, chunk);
+        if (count < 0) {
+          int errno = CLibrary.errno();
+          if (errno == CLibrary.EINTR || errno == CLibrary.EAGAIN) continue;
+          break;
+        }
+        written += count;
+      }
+      recordWrite(written);
+      return written > 0 ? written : -1;
+    }
+  }
+
+  int write(@NotNull Pointer buf, int len) {
+    return recordWrite(CLibrary.write(myMaster, buf, len));
+  }
+
+  int writev(@NotNull Pointer iov, int iovcnt) {
+    return recordWrite(CLibrary.writev(myMaster, iov, iovcnt));
   }
 
 }
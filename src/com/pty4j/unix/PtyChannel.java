@@ -0,0 +1,210 @@
+package com.pty4j.unix;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+import java.util.Objects;
+
+/**
+ * A blocking channel over the master side of a {@link Pty}.
+ * <p>
+ * Direct buffers are read and written by the system calls in place, scattering reads and gathering writes
+ * of direct buffers are performed with a single {@code readv}/{@code writev} call.
+ * Heap buffers are copied through a small native buffer owned by the channel.
+ * <p>
+ * Reading blocks until some output is available, and returns -1 after the process has terminated and its output
+ * has been read, like {@link Pty#getInputStream()} does. In reactor mode (see {@link Pty#isReactorMode()})
+ * the output is copied from the buffer filled by the {@link PtyReactor}.
+ */
+public final class PtyChannel implements ByteChannel, ScatteringByteChannel, GatheringByteChannel {
+
+  private static final int BOUNCE_BUFFER_SIZE = 8192;
+
+  private final Pty myPty;
+  private final Object myReadLock = new Object();
+  private final Object myWriteLock = new Object();
+  private Memory myReadBounceBuffer;
+  private Memory myWriteBounceBuffer;
+  private Memory myReadIov;
+  private Memory myWriteIov;
+
+  PtyChannel(@NotNull Pty pty) {
+    myPty = pty;
+  }
+
+  @Override
+  public int read(ByteBuffer dst) throws IOException {
+    return (int)read(new ByteBuffer[]{dst}, 0, 1);
+  }
+
+  @Override
+  public long read(ByteBuffer[] dsts) throws IOException {
+    return read(dsts, 0, dsts.length);
+  }
+
+  @Override
+  public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+    Objects.checkFromIndexSize(offset, length, dsts.length);
+    for (int i = offset; i < offset + length; i++) {
+      if (dsts[i].isReadOnly()) {
+        throw new IllegalArgumentException("Read-only buffer");
+      }
+    }
+    ensureOpen();
+    if (remaining(dsts, offset, length) == 0) {
+      return 0;
+    }
+    synchronized (myReadLock) {
+      if (myPty.isReactorMode()) {
+        return myPty.getReactorInput().read(dsts, offset, length);
+      }
+      int count;
+      if (allDirect(dsts, offset, length)) {
+        if (length == 1) {
+          ByteBuffer dst = dsts[offset];
+          count = myPty.read(address(dst), dst.remaining());
+        }
+        else {
+          myReadIov = fillIov(myReadIov, dsts, offset, length);
+          count = myPty.readv(myReadIov, length);
+        }
+        if (count > 0) {
+          advance(dsts, offset, length, count);
+        }
+      }
+      else {
+        if (myReadBounceBuffer == null) {
+          myReadBounceBuffer = new Memory(BOUNCE_BUFFER_SIZE);
+        }
+        count = myPty.read(myReadBounceBuffer, (int)Math.min(remaining(dsts, offset, length), BOUNCE_BUFFER_SIZE));
+        if (count > 0) {
+          ByteBuffer src = myReadBounceBuffer.getByteBuffer(0, count);
+          for (int i = offset; i < offset + length && src.hasRemaining(); i++) {
+            int part = Math.min(src.remaining(), dsts[i].remaining());
+            dsts[i].put(src.slice().limit(part));
+            src.position(src.position() + part);
+          }
+        }
+      }
+      return count > 0 ? count : -1;
+    }
+  }
+
+  @Override
+  public int write(ByteBuffer src) throws IOException {
+    return (int)write(new ByteBuffer[]{src}, 0, 1);
+  }
+
+  @Override
+  public long write(ByteBuffer[] srcs) throws IOException {
+    return write(srcs, 0, srcs.length);
+  }
+
+  /**
+   * Writes all the remaining bytes of the given buffers.
+   */
+  @Override
+  public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+    Objects.checkFromIndexSize(offset, length, srcs.length);
+    ensureOpen();
+    long total = remaining(srcs, offset, length);
+    synchronized (myWriteLock) {
+      long written = 0;
+      while (written < total) {
+        int count;
+        if (allDirect(srcs, offset, length)) {
+          myWriteIov = fillIov(myWriteIov, srcs, offset, length);
+          count = myPty.writev(myWriteIov, length);
+        }
+        else {
+          if (myWriteBounceBuffer == null) {
+            myWriteBounceBuffer = new Memory(BOUNCE_BUFFER_SIZE);
+          }
+          ByteBuffer bounce = myWriteBounceBuffer.getByteBuffer(0, BOUNCE_BUFFER_SIZE);
+          for (int i = offset; i < offset + length && bounce.hasRemaining(); i++) {
+            ByteBuffer src = srcs[i].duplicate();
+            bounce.put(src.limit(src.position() + Math.min(src.remaining(), bounce.remaining())));
+          }
+          count = myPty.write(myWriteBounceBuffer, bounce.position());
+        }
+        if (count < 0) {
+          int errno = CLibrary.errno();
+          if (errno == CLibrary.EINTR || errno == CLibrary.EAGAIN) continue;
+          throw new UnixPtyException("Failed to write to pty", errno);
+        }
+        advance(srcs, offset, length, count);
+        written += count;
+      }
+      return written;
+    }
+  }
+
+  @Override
+  public boolean isOpen() {
+    return !myPty.isClosed();
+  }
+
+  @Override
+  public void close() throws IOException {
+    myPty.close();
+  }
+
+  private void ensureOpen() throws ClosedChannelException {
+    if (!isOpen()) {
+      throw new ClosedChannelException();
+    }
+  }
+
+  private static @NotNull Pointer address(@NotNull ByteBuffer buffer) {
+    return Native.getDirectBufferPointer(buffer).share(buffer.position());
+  }
+
+  private static @NotNull Memory fillIov(Memory iov, @NotNull ByteBuffer[] buffers, int offset, int length) {
+    if (iov == null || iov.size() < (long)length * CLibrary.IOVEC_SIZE) {
+      iov = new Memory((long)Math.max(length, 4) * CLibrary.IOVEC_SIZE);
+    }
+    for (int i = 0; i < length; i++) {
+      ByteBuffer buffer = buffers[offset + i];
+      long base = (long)i * CLibrary.IOVEC_SIZE;
+      iov.setPointer(base, address(buffer));
+      if (Native.SIZE_T_SIZE == 8) {
+        iov.setLong(base + Native.POINTER_SIZE, buffer.remaining());
+      }
+      else {
+        iov.setInt(base + Native.POINTER_SIZE, buffer.remaining());
+      }
+    }
+    return iov;
+  }
+
+  private static void advance(@NotNull ByteBuffer[] buffers, int offset, int length, long count) {
+    for (int i = offset; i < offset + length && count > 0; i++) {
+      int part = (int)Math.min(count, buffers[i].remaining());
+      buffers[i].position(buffers[i].position() + part);
+      count -= part;
+    }
+  }
+
+  private static boolean allDirect(@NotNull ByteBuffer[] buffers, int offset, int length) {
+    for (int i = offset; i < offset + length; i++) {
+      if (!buffers[i].isDirect()) return false;
+    }
+    return true;
+  }
+
+  private static long remaining(@NotNull ByteBuffer[] buffers, int offset, int length) {
+    long remaining = 0;
+    for (int i = offset; i < offset + length; i++) {
+      remaining += buffers[i].remaining();
+    }
+    return remaining;
+  }
+}
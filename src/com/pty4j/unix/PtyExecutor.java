@@ -9,8 +9,14 @@ import org.jetbrains.annotations.Nullable;
  * @author traff
  */
 interface PtyExecutor {
+  /**
+   * @param winSize the initial window size of the pty, or null to keep the default one
+   * @return pid of the child, which has executed the program
+   * @throws UnixPtyExecException if the child cannot be started or the program cannot be executed
+   */
   int execPty(String full_path, String[] argv, String[] envp,
-              String dirpath, String pts_name, int fdm, String err_pts_name, int err_fdm, boolean console);
+              String dirpath, String pts_name, int fdm, String err_pts_name, int err_fdm, boolean console,
+              @Nullable WinSize winSize) throws UnixPtyExecException;
 
   int waitForProcessExitAndGetExitCode(int pid);
 
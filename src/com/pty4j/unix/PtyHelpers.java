@@ -196,18 +196,13 @@ public class PtyHelpers {
   });
 
   static {
+    // sets the OS-specific constants above; libc and libpty are loaded on first use
     try {
       getOsFacade();
     }
     catch (Throwable t) {
       LOG.error(t.getMessage(), t.getCause());
     }
-    try {
-      getPtyExecutor();
-    }
-    catch (Throwable t) {
-      LOG.error(t.getMessage(), t.getCause());
-    }
   }
 
   @NotNull
@@ -233,6 +228,21 @@ public class PtyHelpers {
     return getOsFacade();
   }
 
+  /**
+   * Loads libc bindings, which are otherwise loaded on first use, see {@link com.pty4j.Pty4j#preload}.
+   */
+  public static void loadCLibrary() {
+    getOsFacade().getpid();
+    CLibrary.getBackendName();
+  }
+
+  /**
+   * Loads libpty, which is otherwise loaded on the first start of a process, see {@link com.pty4j.Pty4j#preload}.
+   */
+  public static void loadPtyLibrary() {
+    getPtyExecutor();
+  }
+
   private static byte CTRLKEY(char c) {
     return (byte)((byte)c - (byte)'A' + 1);
   }
@@ -310,7 +320,26 @@ public class PtyHelpers {
                             String err_pts_name,
                             int err_fdm,
                             boolean console) {
+    try {
+      return execPty(full_path, argv, envp, dirpath, pts_name, fdm, err_pts_name, err_fdm, console, null);
+    }
+    catch (UnixPtyExecException e) {
+      LOG.debug("Cannot execute " + full_path, e);
+      return -1;
+    }
+  }
+
+  public static int execPty(String full_path,
+                            String[] argv,
+                            String[] envp,
+                            String dirpath,
+                            String pts_name,
+                            int fdm,
+                            String err_pts_name,
+                            int err_fdm,
+                            boolean console,
+                            @Nullable WinSize winSize) throws UnixPtyExecException {
     PtyExecutor executor = getPtyExecutor();
-    return executor.execPty(full_path, argv, envp, dirpath, pts_name, fdm, err_pts_name, err_fdm, console);
+    return executor.execPty(full_path, argv, envp, dirpath, pts_name, fdm, err_pts_name, err_fdm, console, winSize);
   }
 }
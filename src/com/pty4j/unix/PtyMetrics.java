@@ -0,0 +1,258 @@
+package com.pty4j.unix;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Opt-in metrics of Unix pty processes: I/O counters per session (see {@link PtySessionMetrics}), live sessions,
+ * spawn times, spawn failures by errno and the backlog of the shared {@link ChildReaper}.
+ * <p>
+ * Disabled by default; enabled with {@link #setEnabled} or the {@code pty4j.metrics=true} system property.
+ * Only the processes started while enabled are counted. The metrics are delivered to {@link PtyMetricsListener}s
+ * and exposed as JMX MBeans once {@link #registerMBeans()} is called or with {@code pty4j.metrics.jmx=true}.
+ */
+public final class PtyMetrics implements PtyMetricsMXBean {
+
+  private static final Logger LOG = LoggerFactory.getLogger(PtyMetrics.class);
+
+  private static final String DOMAIN = "com.pty4j";
+  private static final long[] SPAWN_BUCKET_BOUNDS_MICROS = {250, 500, 1000, 2000, 4000, 8000, 16000, 32000, 64000, 128000};
+
+  private static final PtyMetrics INSTANCE = new PtyMetrics();
+
+  private volatile boolean myEnabled = Boolean.getBoolean("pty4j.metrics");
+  private volatile boolean myMBeansRegistered;
+  private final Set<PtySessionMetrics> myLiveSessions = ConcurrentHashMap.newKeySet();
+  private final LongAdder myStartedSessions = new LongAdder();
+  private final LongAdder[] mySpawnTimeBuckets = new LongAdder[SPAWN_BUCKET_BOUNDS_MICROS.length + 1];
+  private final Map<Integer, LongAdder> mySpawnFailures = new ConcurrentHashMap<>();
+  private final List<PtyMetricsListener> myListeners = new CopyOnWriteArrayList<>();
+
+  private PtyMetrics() {
+    for (int i = 0; i < mySpawnTimeBuckets.length; i++) {
+      mySpawnTimeBuckets[i] = new LongAdder();
+    }
+    if (Boolean.getBoolean("pty4j.metrics.jmx")) {
+      registerMBeans();
+    }
+  }
+
+  public static @NotNull PtyMetrics getInstance() {
+    return INSTANCE;
+  }
+
+  public boolean isEnabled() {
+    return myEnabled;
+  }
+
+  public void setEnabled(boolean enabled) {
+    myEnabled = enabled;
+  }
+
+  public void addListener(@NotNull PtyMetricsListener listener) {
+    myListeners.add(listener);
+  }
+
+  public void removeListener(@NotNull PtyMetricsListener listener) {
+    myListeners.remove(listener);
+  }
+
+  /**
+   * Enables the metrics and registers {@code com.pty4j:type=PtyMetrics} in the platform MBean server,
+   * and {@code com.pty4j:type=PtySession,pid=<pid>} for every live session.
+   */
+  public synchronized void registerMBeans() {
+    myEnabled = true;
+    if (myMBeansRegistered) return;
+    myMBeansRegistered = true;
+    register(this, () -> new ObjectName(DOMAIN + ":type=PtyMetrics"));
+    for (PtySessionMetrics session : myLiveSessions) {
+      registerSession(session);
+    }
+  }
+
+  /**
+   * @return the metrics of the processes that are started and haven't terminated yet
+   */
+  public @NotNull Collection<PtySessionMetrics> getSessions() {
+    return Collections.unmodifiableSet(myLiveSessions);
+  }
+
+  @Override
+  public int getLiveSessions() {
+    return myLiveSessions.size();
+  }
+
+  @Override
+  public long getStartedSessions() {
+    return myStartedSessions.sum();
+  }
+
+  /**
+   * @return the number of spawns per time range, from opening the ptys until the program is executed in the child
+   */
+  @Override
+  public @NotNull Map<String, Long> getSpawnTimeHistogram() {
+    Map<String, Long> result = new LinkedHashMap<>();
+    for (int i = 0; i < mySpawnTimeBuckets.length; i++) {
+      String bound = i < SPAWN_BUCKET_BOUNDS_MICROS.length ? "< " + formatMillis(SPAWN_BUCKET_BOUNDS_MICROS[i])
+                                                           : ">= " + formatMillis(SPAWN_BUCKET_BOUNDS_MICROS[i - 1]);
+      result.put(bound, mySpawnTimeBuckets[i].sum());
+    }
+    return result;
+  }
+
+  /**
+   * @return the number of failed spawns by errno, 0 stands for failures with unknown errno
+   */
+  @Override
+  public @NotNull Map<Integer, Long> getSpawnFailures() {
+    Map<Integer, Long> result = new TreeMap<>();
+    mySpawnFailures.forEach((errno, count) -> result.put(errno, count.sum()));
+    return result;
+  }
+
+  /**
+   * @return the number of terminated children that the shared {@link ChildReaper} hasn't reaped yet
+   */
+  @Override
+  public int getReaperBacklog() {
+    return ChildReaper.getBacklog();
+  }
+
+  /**
+   * @return the metrics for a new process, or null if disabled
+   */
+  static @Nullable PtySessionMetrics newSession() {
+    return INSTANCE.myEnabled ? new PtySessionMetrics() : null;
+  }
+
+  void sessionStarted(@NotNull PtySessionMetrics session, long pid, long ptyAllocationNanos, long spawnNanos) {
+    session.started(pid, ptyAllocationNanos, spawnNanos);
+    myStartedSessions.increment();
+    long spawnMicros = TimeUnit.NANOSECONDS.toMicros(spawnNanos);
+    int bucket = 0;
+    while (bucket < SPAWN_BUCKET_BOUNDS_MICROS.length && spawnMicros >= SPAWN_BUCKET_BOUNDS_MICROS[bucket]) {
+      bucket++;
+    }
+    mySpawnTimeBuckets[bucket].increment();
+    boolean ended;
+    synchronized (session) {
+      // the process may have already terminated and been reaped
+      session.myStarted = true;
+      ended = session.myEnded;
+      if (!ended) {
+        myLiveSessions.add(session);
+      }
+    }
+    if (!ended && myMBeansRegistered) {
+      registerSession(session);
+    }
+    for (PtyMetricsListener listener : myListeners) {
+      try {
+        listener.sessionStarted(session);
+      }
+      catch (Throwable t) {
+        LOG.error("Metrics listener failed", t);
+      }
+    }
+    if (ended) {
+      fireSessionEnded(session);
+    }
+  }
+
+  void sessionEnded(@NotNull PtySessionMetrics session) {
+    synchronized (session) {
+      if (session.myEnded) return;
+      session.myEnded = true;
+      if (!session.myStarted) return;
+      myLiveSessions.remove(session);
+    }
+    if (myMBeansRegistered) {
+      unregister(() -> sessionName(session));
+    }
+    fireSessionEnded(session);
+  }
+
+  private void fireSessionEnded(@NotNull PtySessionMetrics session) {
+    for (PtyMetricsListener listener : myListeners) {
+      try {
+        listener.sessionEnded(session);
+      }
+      catch (Throwable t) {
+        LOG.error("Metrics listener failed", t);
+      }
+    }
+  }
+
+  void spawnFailed(@NotNull IOException e) {
+    if (!myEnabled) return;
+    int errno = e instanceof UnixPtyExecException ? ((UnixPtyExecException)e).getErrno()
+                : e instanceof UnixPtyException ? ((UnixPtyException)e).getErrno()
+                : 0;
+    mySpawnFailures.computeIfAbsent(errno, key -> new LongAdder()).increment();
+    for (PtyMetricsListener listener : myListeners) {
+      try {
+        listener.spawnFailed(errno, e);
+      }
+      catch (Throwable t) {
+        LOG.error("Metrics listener failed", t);
+      }
+    }
+  }
+
+  private static void registerSession(@NotNull PtySessionMetrics session) {
+    register(session, () -> sessionName(session));
+  }
+
+  private static @NotNull ObjectName sessionName(@NotNull PtySessionMetrics session) throws JMException {
+    return new ObjectName(DOMAIN + ":type=PtySession,pid=" + session.getPid());
+  }
+
+  private static void register(@NotNull Object mbean, @NotNull ObjectNameFactory name) {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName objectName = name.create();
+      if (!server.isRegistered(objectName)) {
+        server.registerMBean(mbean, objectName);
+      }
+    }
+    catch (JMException e) {
+      LOG.warn("Cannot register pty4j MBean", e);
+    }
+  }
+
+  private static void unregister(@NotNull ObjectNameFactory name) {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName objectName = name.create();
+      if (server.isRegistered(objectName)) {
+        server.unregisterMBean(objectName);
+      }
+    }
+    catch (JMException e) {
+      LOG.debug("Cannot unregister pty4j MBean", e);
+    }
+  }
+
+  private static @NotNull String formatMillis(long micros) {
+    return micros % 1000 == 0 ? micros / 1000 + " ms" : micros / 1000.0 + " ms";
+  }
+
+  private interface ObjectNameFactory {
+    @NotNull ObjectName create() throws JMException;
+  }
+}
@@ -0,0 +1,29 @@
+package com.pty4j.unix;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+/**
+ * Receives session events from {@link PtyMetrics}. The methods are called on the threads that start the processes
+ * or reap them, so they should return quickly.
+ */
+public interface PtyMetricsListener {
+  /**
+   * Called once the process is spawned; its spawn times are already set.
+   */
+  default void sessionStarted(@NotNull PtySessionMetrics session) {
+  }
+
+  /**
+   * Called once the process has terminated. Its output may still be read, so the counters may still grow.
+   */
+  default void sessionEnded(@NotNull PtySessionMetrics session) {
+  }
+
+  /**
+   * @param errno errno of the failed step, or 0 if unknown
+   */
+  default void spawnFailed(int errno, @NotNull IOException e) {
+  }
+}
@@ -0,0 +1,18 @@
+package com.pty4j.unix;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link PtyMetrics}, registered as {@code com.pty4j:type=PtyMetrics}.
+ */
+public interface PtyMetricsMXBean {
+  int getLiveSessions();
+
+  long getStartedSessions();
+
+  Map<String, Long> getSpawnTimeHistogram();
+
+  Map<Integer, Long> getSpawnFailures();
+
+  int getReaperBacklog();
+}
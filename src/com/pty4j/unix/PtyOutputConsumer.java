@@ -0,0 +1,26 @@
+package com.pty4j.unix;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the output of a {@link Pty} read by the shared {@link PtyReactor}.
+ * <p>
+ * Both methods are called on a reactor thread, which serves many other sessions as well.
+ * Implementations should hand the data off quickly and must never block.
+ */
+public interface PtyOutputConsumer {
+  /**
+   * Called when new output is available.
+   *
+   * @param data the output; the buffer is reused by the reactor and is valid only until this method returns
+   */
+  void onOutput(@NotNull ByteBuffer data);
+
+  /**
+   * Called once when no more output will be delivered: the pty has been closed, or the process has terminated and
+   * its remaining output has been read.
+   */
+  void onEof();
+}
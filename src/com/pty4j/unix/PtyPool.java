@@ -0,0 +1,192 @@
+package com.pty4j.unix;
+
+import kotlin.Pair;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a number of pty pairs open and ready to use, so that starting a process doesn't wait for
+ * {@code posix_openpt}, {@code grantpt}, {@code unlockpt} and {@code ptsname} (serialized by a global lock on macOS and BSD),
+ * nor for the wake-up pipe of the {@link Pty}.
+ * <p>
+ * The pool is refilled by a background thread as pairs are taken. To avoid exhausting ptys of the system,
+ * it stops refilling while fewer than {@code size} ptys are left free ({@code /proc/sys/kernel/pty/max} and
+ * {@code /proc/sys/kernel/pty/nr}, Linux only). If the pool is empty, a new pair is opened as usual.
+ * <p>
+ * Used with {@link com.pty4j.PtyProcessBuilder#setUnixPtyPool}. The pool should be closed when it's no longer
+ * needed to release the pairs it keeps.
+ */
+public final class PtyPool implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(PtyPool.class);
+
+  private static final long RETRY_INTERVAL_MS = 1000;
+
+  private final int mySize;
+  private final Object myLock = new Object();
+  private final ArrayDeque<PreparedPty> myReady;
+  private final AtomicLong myHits = new AtomicLong();
+  private final AtomicLong myMisses = new AtomicLong();
+  private boolean myClosed;
+
+  /**
+   * @param size the number of pty pairs to keep ready
+   */
+  public PtyPool(int size) {
+    if (size <= 0) {
+      throw new IllegalArgumentException("size should be positive: " + size);
+    }
+    mySize = size;
+    myReady = new ArrayDeque<>(size);
+    Thread thread = new Thread(this::refill, "Pty4J Pty Pool Refill");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * @return the number of pty pairs ready to use
+   */
+  public int getReadyCount() {
+    synchronized (myLock) {
+      return myReady.size();
+    }
+  }
+
+  /**
+   * @return how many times a pty pair was taken from the pool
+   */
+  public long getHitCount() {
+    return myHits.get();
+  }
+
+  /**
+   * @return how many times the pool was empty and a pty pair had to be opened by the caller
+   */
+  public long getMissCount() {
+    return myMisses.get();
+  }
+
+  /**
+   * @return a ready pair, or null if the pool is empty or closed
+   */
+  @Nullable PreparedPty take() {
+    PreparedPty pty;
+    synchronized (myLock) {
+      pty = myClosed ? null : myReady.pollFirst();
+      myLock.notifyAll();
+    }
+    (pty != null ? myHits : myMisses).incrementAndGet();
+    return pty;
+  }
+
+  /**
+   * Closes all the ready pairs and stops refilling. Ptys already taken from the pool are not affected.
+   */
+  @Override
+  public void close() {
+    synchronized (myLock) {
+      myClosed = true;
+      for (PreparedPty pty : myReady) {
+        pty.close();
+      }
+      myReady.clear();
+      myLock.notifyAll();
+    }
+  }
+
+  private void refill() {
+    try {
+      while (true) {
+        synchronized (myLock) {
+          while (!myClosed && myReady.size() >= mySize) {
+            myLock.wait();
+          }
+          if (myClosed) return;
+        }
+        PreparedPty pty = hasFreePtys() ? PreparedPty.open() : null;
+        synchronized (myLock) {
+          if (pty == null) {
+            myLock.wait(RETRY_INTERVAL_MS);
+          }
+          else if (myClosed) {
+            pty.close();
+          }
+          else {
+            myReady.addLast(pty);
+          }
+        }
+      }
+    }
+    catch (InterruptedException e) {
+      LOG.warn("Pty pool refill is interrupted");
+    }
+  }
+
+  private boolean hasFreePtys() {
+    long max = readProcValue("/proc/sys/kernel/pty/max");
+    long used = readProcValue("/proc/sys/kernel/pty/nr");
+    return max < 0 || used < 0 || max - used > mySize;
+  }
+
+  private static long readProcValue(@NotNull String path) {
+    // read up to EOF: the size of a /proc file isn't known in advance
+    try (BufferedReader reader = Files.newBufferedReader(Path.of(path))) {
+      String line = reader.readLine();
+      return line != null ? Long.parseLong(line.trim()) : -1;
+    }
+    catch (IOException | NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * An open pty master with its slave name and the wake-up pipe for the {@link Pty} reading it.
+   */
+  static final class PreparedPty {
+    final int myMaster;
+    final String mySlaveName;
+    final int[] myPipe;
+
+    private PreparedPty(int master, @NotNull String slaveName, int[] pipe) {
+      myMaster = master;
+      mySlaveName = slaveName;
+      myPipe = pipe;
+    }
+
+    static @Nullable PreparedPty open() {
+      Pair<Integer, String> masterSlave = Pty.ptyMasterOpen();
+      int master = masterSlave.getFirst();
+      if (master < 0) {
+        LOG.warn("Cannot open pty for the pool, error: " + master);
+        return null;
+      }
+      int[] pipe = new int[2];
+      if (CLibrary.pipe(pipe) != 0) {
+        LOG.warn("Cannot open pipe for the pool, errno: " + CLibrary.errno());
+        CLibrary.close(master);
+        return null;
+      }
+      return new PreparedPty(master, masterSlave.getSecond(), pipe);
+    }
+
+    void closePipe() {
+      CLibrary.close(myPipe[0]);
+      CLibrary.close(myPipe[1]);
+    }
+
+    void close() {
+      CLibrary.close(myMaster);
+      closePipe();
+    }
+  }
+}
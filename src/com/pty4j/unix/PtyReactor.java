@@ -0,0 +1,299 @@
+package com.pty4j.unix;
+
+import com.pty4j.util.LazyValue;
+import com.sun.jna.Memory;
+import com.sun.jna.Platform;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads pty masters of many sessions with a few shared epoll loops (Linux only).
+ * <p>
+ * Without the reactor every session needs its own reader thread blocked in {@code poll()}.
+ * With the reactor, masters are registered in one of the event loops, which reads the ready data and hands it to
+ * a per-session {@link PtyOutputConsumer}. {@link PTYInputStream} keeps working on top of it.
+ * <p>
+ * The number of event loops is set by {@code pty4j.reactor.threads} system property,
+ * and defaults to the number of available processors.
+ */
+public final class PtyReactor {
+
+  private static final Logger LOG = LoggerFactory.getLogger(PtyReactor.class);
+
+  static final int READ_BUFFER_SIZE = 16 * 1024;
+  private static final int MAX_EVENTS = 64;
+  private static final int EVENTS = CLibrary.EPOLLIN | CLibrary.EPOLLONESHOT;
+
+  private static final LazyValue<PtyReactor> INSTANCE = new LazyValue<>(PtyReactor::new);
+
+  private final EventLoop[] myLoops;
+  private final AtomicInteger myNextLoop = new AtomicInteger();
+  private final AtomicLong myNextRegistrationId = new AtomicLong();
+
+  private PtyReactor() throws IOException {
+    int count = Math.max(1, Integer.getInteger("pty4j.reactor.threads", Runtime.getRuntime().availableProcessors()));
+    myLoops = new EventLoop[count];
+    for (int i = 0; i < count; i++) {
+      myLoops[i] = new EventLoop();
+      Thread thread = new Thread(myLoops[i], "Pty4J Reactor #" + i);
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  public static boolean isSupported() {
+    return Platform.isLinux();
+  }
+
+  static @NotNull PtyReactor getInstance() {
+    try {
+      return INSTANCE.getValue();
+    }
+    catch (Throwable t) {
+      throw new RuntimeException("Cannot start pty reactor", t);
+    }
+  }
+
+  @NotNull Registration register(int fd, @NotNull PtyOutputConsumer consumer, @Nullable PtySessionMetrics metrics)
+    throws IOException {
+    EventLoop loop = myLoops[Math.floorMod(myNextLoop.getAndIncrement(), myLoops.length)];
+    Registration registration = new Registration(loop, fd, myNextRegistrationId.incrementAndGet(), consumer, metrics);
+    loop.myRegistrations.put(registration.myId, registration);
+    if (CLibrary.epollCtl(loop.myEpollFd, CLibrary.EPOLL_CTL_ADD, fd, registration.myEvent) != 0) {
+      int errno = CLibrary.errno();
+      loop.myRegistrations.remove(registration.myId);
+      throw new UnixPtyException("Cannot register fd=" + fd + " in pty reactor", errno);
+    }
+    return registration;
+  }
+
+  private static final class EventLoop implements Runnable {
+    private final int myEpollFd;
+    private final int[] myWakeupPipe = new int[2];
+    private final Memory myEvents = new Memory((long)MAX_EVENTS * CLibrary.EPOLL_EVENT_SIZE);
+    private final Memory myReadBuffer = new Memory(READ_BUFFER_SIZE);
+    private final ByteBuffer myReadBufferView = myReadBuffer.getByteBuffer(0, READ_BUFFER_SIZE);
+    private final Memory myWakeupByte = new Memory(1);
+    private final Memory myWakeupBuffer = new Memory(64);
+    private final Map<Long, Registration> myRegistrations = new ConcurrentHashMap<>();
+    private final Queue<Runnable> myTasks = new ConcurrentLinkedQueue<>();
+
+    EventLoop() throws IOException {
+      myWakeupByte.setByte(0, (byte)0);
+      myEpollFd = CLibrary.epollCreate();
+      if (myEpollFd < 0) {
+        throw new UnixPtyException("epoll_create1 failed", CLibrary.errno());
+      }
+      if (CLibrary.pipe(myWakeupPipe) != 0) {
+        throw new UnixPtyException("pipe failed", CLibrary.errno());
+      }
+      // the wake-up pipe is registered with id 0, registrations get positive ids
+      if (CLibrary.epollCtl(myEpollFd, CLibrary.EPOLL_CTL_ADD, myWakeupPipe[0], CLibrary.EPOLLIN, 0) != 0) {
+        throw new UnixPtyException("Cannot register wake-up pipe", CLibrary.errno());
+      }
+    }
+
+    void execute(@NotNull Runnable task) {
+      myTasks.add(task);
+      CLibrary.write(myWakeupPipe[1], myWakeupByte, 1);
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        int count = CLibrary.epollWait(myEpollFd, myEvents, MAX_EVENTS, -1);
+        if (count < 0) {
+          int errno = CLibrary.errno();
+          if (errno == CLibrary.EINTR) continue;
+          LOG.error("epoll_wait failed, errno=" + errno + ", pty reactor stopped");
+          return;
+        }
+        for (int i = 0; i < count; i++) {
+          long id = CLibrary.getEpollEventData(myEvents, i);
+          if (id == 0) {
+            CLibrary.read(myWakeupPipe[0], myWakeupBuffer, (int)myWakeupBuffer.size());
+            runTasks();
+          }
+          else {
+            // a missing registration is a stale event of an already unregistered fd
+            Registration registration = myRegistrations.get(id);
+            if (registration != null) {
+              readSafely(registration);
+            }
+          }
+        }
+      }
+    }
+
+    private void runTasks() {
+      Runnable task;
+      while ((task = myTasks.poll()) != null) {
+        try {
+          task.run();
+        }
+        catch (Throwable t) {
+          LOG.error("Pty reactor task failed", t);
+        }
+      }
+    }
+
+    private void readSafely(@NotNull Registration registration) {
+      try {
+        registration.read(myReadBuffer, myReadBufferView);
+      }
+      catch (Throwable t) {
+        LOG.error("Failed to deliver output of fd=" + registration.myFd, t);
+      }
+    }
+  }
+
+  /**
+   * A master fd registered in an event loop. The fd is armed with {@code EPOLLONESHOT}, so that it is reported
+   * only once until it's re-armed after the data has been delivered. Paused registrations stay disarmed.
+   */
+  static final class Registration {
+    private final EventLoop myLoop;
+    private final int myFd;
+    private final long myId;
+    private final PtyOutputConsumer myConsumer;
+    private final @Nullable PtySessionMetrics myMetrics;
+    // reused to re-arm the fd after every read
+    private final Memory myEvent = new Memory(CLibrary.EPOLL_EVENT_SIZE);
+    // reused by hasInput() while draining
+    private final Memory myPollFd = new Memory(CLibrary.POLLFD_SIZE);
+    private boolean myClosed;
+    private boolean myPaused;
+    private boolean myArmed = true;
+
+    private Registration(@NotNull EventLoop loop, int fd, long id, @NotNull PtyOutputConsumer consumer,
+                         @Nullable PtySessionMetrics metrics) {
+      myLoop = loop;
+      myFd = fd;
+      myId = id;
+      myConsumer = consumer;
+      myMetrics = metrics;
+      CLibrary.setEpollEvent(myEvent, EVENTS, id);
+      myPollFd.setInt(0, fd);
+      myPollFd.setShort(4, CLibrary.POLLIN);
+    }
+
+    private void read(@NotNull Memory buffer, @NotNull ByteBuffer bufferView) {
+      int count;
+      synchronized (this) {
+        if (myClosed) return;
+        myArmed = false;
+        count = CLibrary.read(myFd, buffer, READ_BUFFER_SIZE);
+        if (myMetrics != null) {
+          myMetrics.recordPollWakeup();
+          myMetrics.recordRead(count);
+        }
+        if (count < 0) {
+          int errno = CLibrary.errno();
+          if (errno == CLibrary.EINTR || errno == CLibrary.EAGAIN) {
+            rearm();
+            return;
+          }
+        }
+        if (count <= 0) {
+          // EIO: the slave side has been closed by all processes
+          unregister();
+        }
+      }
+      if (count > 0) {
+        bufferView.clear().limit(count);
+        myConsumer.onOutput(bufferView);
+        synchronized (this) {
+          if (!myClosed && !myPaused) {
+            rearm();
+          }
+        }
+      }
+      else {
+        myConsumer.onEof();
+      }
+    }
+
+    private void rearm() {
+      if (!myArmed && CLibrary.epollCtl(myLoop.myEpollFd, CLibrary.EPOLL_CTL_MOD, myFd, myEvent) == 0) {
+        myArmed = true;
+      }
+    }
+
+    private void unregister() {
+      myClosed = true;
+      myLoop.myRegistrations.remove(myId);
+      CLibrary.epollCtl(myLoop.myEpollFd, CLibrary.EPOLL_CTL_DEL, myFd, myEvent);
+    }
+
+    /**
+     * Stops reading until {@link #resume()} is called. Should be called from {@link PtyOutputConsumer#onOutput}.
+     */
+    synchronized void pause() {
+      myPaused = true;
+    }
+
+    synchronized void resume() {
+      if (myPaused) {
+        myPaused = false;
+        if (!myClosed) {
+          rearm();
+        }
+      }
+    }
+
+    /**
+     * Reads all the output that is immediately available and then reports EOF. Used when the process has terminated,
+     * but the slave may still be kept open, e.g. by its background children.
+     */
+    void drainAndClose() {
+      myLoop.execute(() -> {
+        while (true) {
+          int count;
+          synchronized (this) {
+            if (myClosed) return;
+            count = hasInput() ? CLibrary.read(myFd, myLoop.myReadBuffer, READ_BUFFER_SIZE) : 0;
+            if (myMetrics != null && count != 0) {
+              myMetrics.recordRead(count);
+            }
+            if (count <= 0) {
+              unregister();
+            }
+          }
+          if (count <= 0) {
+            myConsumer.onEof();
+            return;
+          }
+          myLoop.myReadBufferView.clear().limit(count);
+          myConsumer.onOutput(myLoop.myReadBufferView);
+        }
+      });
+    }
+
+    /**
+     * Unregisters the fd from the event loop. The fd itself is closed by the caller.
+     */
+    void close() {
+      synchronized (this) {
+        if (myClosed) return;
+        unregister();
+      }
+      myConsumer.onEof();
+    }
+
+    private boolean hasInput() {
+      myPollFd.setShort(6, (short)0);
+      return CLibrary.poll(myPollFd, 1, 0) > 0 && (myPollFd.getShort(6) & CLibrary.POLLIN) != 0;
+    }
+  }
+}
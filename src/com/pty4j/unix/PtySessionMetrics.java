@@ -0,0 +1,131 @@
+package com.pty4j.unix;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * I/O counters of a single {@link UnixPtyProcess}, created only if {@link PtyMetrics} are enabled.
+ * Both the output and the error pty of the process are counted.
+ * <p>
+ * The counters are updated on every read and write, so they are {@link LongAdder}s: the reading and writing threads
+ * don't contend on them, and reading a counter sums the cells.
+ */
+public final class PtySessionMetrics implements PtySessionMetricsMXBean {
+
+  private final LongAdder myBytesRead = new LongAdder();
+  private final LongAdder myBytesWritten = new LongAdder();
+  private final LongAdder myReadCalls = new LongAdder();
+  private final LongAdder myPollWakeups = new LongAdder();
+  private final LongAdder myBreakReadCalls = new LongAdder();
+  private final LongAdder myResizeCalls = new LongAdder();
+  private volatile long myPid;
+  private volatile long myPtyAllocationNanos;
+  private volatile long mySpawnNanos;
+  // guarded by this, see PtyMetrics.sessionStarted/sessionEnded
+  boolean myStarted;
+  boolean myEnded;
+
+  PtySessionMetrics() {
+  }
+
+  void started(long pid, long ptyAllocationNanos, long spawnNanos) {
+    myPid = pid;
+    myPtyAllocationNanos = ptyAllocationNanos;
+    mySpawnNanos = spawnNanos;
+  }
+
+  /**
+   * @param count the result of the read syscall
+   */
+  void recordRead(int count) {
+    myReadCalls.increment();
+    if (count > 0) {
+      myBytesRead.add(count);
+    }
+  }
+
+  void recordWrite(int count) {
+    if (count > 0) {
+      myBytesWritten.add(count);
+    }
+  }
+
+  void recordPollWakeup() {
+    myPollWakeups.increment();
+  }
+
+  void recordBreakRead() {
+    myBreakReadCalls.increment();
+  }
+
+  void recordResize() {
+    myResizeCalls.increment();
+  }
+
+  /**
+   * @return the pid of the process, or 0 if it's not started yet
+   */
+  @Override
+  public long getPid() {
+    return myPid;
+  }
+
+  @Override
+  public long getBytesRead() {
+    return myBytesRead.sum();
+  }
+
+  @Override
+  public long getBytesWritten() {
+    return myBytesWritten.sum();
+  }
+
+  /**
+   * @return the number of read syscalls, including the ones that returned nothing
+   */
+  @Override
+  public long getReadCalls() {
+    return myReadCalls.sum();
+  }
+
+  @Override
+  public double getAverageBytesPerRead() {
+    long calls = myReadCalls.sum();
+    return calls > 0 ? (double)myBytesRead.sum() / calls : 0;
+  }
+
+  /**
+   * @return how many times a reader was woken up to read, by poll or by the shared {@link PtyReactor}
+   */
+  @Override
+  public long getPollWakeups() {
+    return myPollWakeups.sum();
+  }
+
+  @Override
+  public long getBreakReadCalls() {
+    return myBreakReadCalls.sum();
+  }
+
+  @Override
+  public long getResizeCalls() {
+    return myResizeCalls.sum();
+  }
+
+  @Override
+  public long getPtyAllocationMicros() {
+    return TimeUnit.NANOSECONDS.toMicros(myPtyAllocationNanos);
+  }
+
+  @Override
+  public long getSpawnMicros() {
+    return TimeUnit.NANOSECONDS.toMicros(mySpawnNanos);
+  }
+
+  @Override
+  public String toString() {
+    return "pid=" + myPid + ", read=" + getBytesRead() + " bytes in " + getReadCalls() + " calls, written=" +
+           getBytesWritten() + " bytes, poll wake-ups=" + getPollWakeups() + ", breakRead calls=" + getBreakReadCalls() +
+           ", resize calls=" + getResizeCalls();
+  }
+}
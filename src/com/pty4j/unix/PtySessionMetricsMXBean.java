@@ -0,0 +1,27 @@
+package com.pty4j.unix;
+
+/**
+ * JMX view of {@link PtySessionMetrics}, registered as {@code com.pty4j:type=PtySession,pid=<pid>}
+ * while the process is alive.
+ */
+public interface PtySessionMetricsMXBean {
+  long getPid();
+
+  long getBytesRead();
+
+  long getBytesWritten();
+
+  long getReadCalls();
+
+  double getAverageBytesPerRead();
+
+  long getPollWakeups();
+
+  long getBreakReadCalls();
+
+  long getResizeCalls();
+
+  long getPtyAllocationMicros();
+
+  long getSpawnMicros();
+}
@@ -0,0 +1,179 @@
+package com.pty4j.unix;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Buffers the output delivered by {@link PtyReactor} until it's read by {@link PTYInputStream}.
+ * <p>
+ * Reading from the pty is paused while the buffer is almost full and resumed when a reader frees enough space.
+ * The buffer grows only if the reactor drains the remaining output of a terminated process.
+ */
+final class ReactorInputBuffer implements PtyOutputConsumer {
+
+  private static final int CAPACITY = 4 * PtyReactor.READ_BUFFER_SIZE;
+
+  private final ReentrantLock myLock = new ReentrantLock();
+  private final Condition myNotEmpty = myLock.newCondition();
+  private byte[] myBuffer = new byte[CAPACITY];
+  private int myStart;
+  private int mySize;
+  private boolean myEof;
+  private boolean myPaused;
+  private PtyReactor.Registration myRegistration;
+
+  void setRegistration(@NotNull PtyReactor.Registration registration) {
+    myLock.lock();
+    try {
+      myRegistration = registration;
+      if (myPaused) {
+        // the buffer has been filled up before the registration was set
+        registration.pause();
+      }
+    }
+    finally {
+      myLock.unlock();
+    }
+  }
+
+  @Override
+  public void onOutput(@NotNull ByteBuffer data) {
+    myLock.lock();
+    try {
+      int count = data.remaining();
+      ensureCapacity(mySize + count);
+      int end = (myStart + mySize) % myBuffer.length;
+      int firstPart = Math.min(count, myBuffer.length - end);
+      data.get(myBuffer, end, firstPart);
+      data.get(myBuffer, 0, count - firstPart);
+      mySize += count;
+      if (myBuffer.length - mySize < PtyReactor.READ_BUFFER_SIZE && !myPaused) {
+        myPaused = true;
+        if (myRegistration != null) {
+          myRegistration.pause();
+        }
+      }
+      myNotEmpty.signalAll();
+    }
+    finally {
+      myLock.unlock();
+    }
+  }
+
+  @Override
+  public void onEof() {
+    myLock.lock();
+    try {
+      myEof = true;
+      myNotEmpty.signalAll();
+    }
+    finally {
+      myLock.unlock();
+    }
+  }
+
+  int read(byte[] buf, int off, int len) throws InterruptedIOException {
+    PtyReactor.Registration resume;
+    int count;
+    myLock.lock();
+    try {
+      if (!awaitData()) {
+        return -1;
+      }
+      count = Math.min(len, mySize);
+      int firstPart = Math.min(count, myBuffer.length - myStart);
+      System.arraycopy(myBuffer, myStart, buf, off, firstPart);
+      System.arraycopy(myBuffer, 0, buf, off + firstPart, count - firstPart);
+      resume = consumed(count);
+    }
+    finally {
+      myLock.unlock();
+    }
+    if (resume != null) {
+      resume.resume();
+    }
+    return count;
+  }
+
+  long read(@NotNull ByteBuffer[] dsts, int offset, int length) throws InterruptedIOException {
+    PtyReactor.Registration resume;
+    long count = 0;
+    myLock.lock();
+    try {
+      if (!awaitData()) {
+        return -1;
+      }
+      for (int i = offset; i < offset + length && count < mySize; i++) {
+        ByteBuffer dst = dsts[i];
+        int part = (int)Math.min(dst.remaining(), mySize - count);
+        int start = (int)((myStart + count) % myBuffer.length);
+        int firstPart = Math.min(part, myBuffer.length - start);
+        dst.put(myBuffer, start, firstPart);
+        dst.put(myBuffer, 0, part - firstPart);
+        count += part;
+      }
+      resume = consumed((int)count);
+    }
+    finally {
+      myLock.unlock();
+    }
+    if (resume != null) {
+      resume.resume();
+    }
+    return count;
+  }
+
+  /**
+   * @return false if there is no data and no more data will come
+   */
+  private boolean awaitData() throws InterruptedIOException {
+    while (mySize == 0 && !myEof) {
+      try {
+        myNotEmpty.await();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+    }
+    return mySize > 0;
+  }
+
+  /**
+   * @return the registration to resume outside the lock, if reading from the pty has been paused
+   */
+  private @Nullable PtyReactor.Registration consumed(int count) {
+    myStart = (myStart + count) % myBuffer.length;
+    mySize -= count;
+    if (myPaused && myRegistration != null && myBuffer.length - mySize >= PtyReactor.READ_BUFFER_SIZE) {
+      myPaused = false;
+      return myRegistration;
+    }
+    return null;
+  }
+
+  int available() {
+    myLock.lock();
+    try {
+      return mySize;
+    }
+    finally {
+      myLock.unlock();
+    }
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity <= myBuffer.length) return;
+    byte[] buffer = new byte[Math.max(capacity, myBuffer.length * 2)];
+    int firstPart = Math.min(mySize, myBuffer.length - myStart);
+    System.arraycopy(myBuffer, myStart, buffer, 0, firstPart);
+    System.arraycopy(myBuffer, 0, buffer, firstPart, mySize - firstPart);
+    myBuffer = buffer;
+    myStart = 0;
+  }
+}
@@ -0,0 +1,280 @@
+package com.pty4j.unix;
+
+import com.pty4j.WinSize;
+import com.pty4j.util.PtyUtil;
+import com.sun.jna.Native;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+/**
+ * Launches pty processes with the spawn daemon, {@code pty4j-unix-spawn-helper --daemon}
+ * (see {@code native/unix-spawn-helper/spawn-daemon.c} for the protocol).
+ * <p>
+ * The daemon is started once and forks the children from its own small address space, so the spawn cost doesn't
+ * depend on the JVM heap size. The pty masters stay in the JVM: the children open the slaves by name, the same way
+ * {@code exec_pty} does, so no descriptors are passed to the daemon. The children are reaped by the daemon, which
+ * reports their exit codes back to a single reader thread.
+ * <p>
+ * Enabled with {@link com.pty4j.PtyProcessBuilder#setUnixUseSpawnDaemon}. If the helper is missing or doesn't
+ * support the daemon mode, {@link #getInstance()} returns null and processes are launched as usual.
+ */
+final class SpawnDaemon implements Runnable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SpawnDaemon.class);
+
+  private static final int PROTOCOL_VERSION = 3;
+  private static final int MSG_READY = 0;
+  private static final int MSG_SPAWNED = 1;
+  private static final int MSG_FAILED = 2;
+  private static final int MSG_EXITED = 3;
+  private static final int MESSAGE_SIZE = 12;
+
+  private static final Object ourLock = new Object();
+  private static SpawnDaemon ourInstance;
+  private static boolean ourUnavailable;
+
+  private final Process myProcess;
+  private final OutputStream myOutput;
+  private final DataInputStream myInput;
+  private final AtomicInteger myNextRequestId = new AtomicInteger();
+  private final Map<Integer, Request> myRequests = new ConcurrentHashMap<>();
+  // pid -> exit callback of the children started by the daemon
+  private final Map<Integer, IntConsumer> myChildren = new ConcurrentHashMap<>();
+  private volatile boolean myStopped;
+
+  private SpawnDaemon(@NotNull File helper) throws IOException {
+    myProcess = new ProcessBuilder(helper.getAbsolutePath(), "--daemon")
+      .redirectError(ProcessBuilder.Redirect.INHERIT)
+      .start();
+    myOutput = myProcess.getOutputStream();
+    myInput = new DataInputStream(myProcess.getInputStream());
+    try {
+      ByteBuffer ready = readMessage();
+      if (ready == null || ready.getInt(0) != MSG_READY || ready.getInt(4) != PROTOCOL_VERSION) {
+        throw new IOException(helper + " doesn't support the spawn daemon protocol v" + PROTOCOL_VERSION);
+      }
+    }
+    catch (IOException e) {
+      myProcess.destroyForcibly();
+      throw e;
+    }
+    Thread thread = new Thread(this, "Pty4J Spawn Daemon Reader");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * @return the running daemon, or null if it cannot be started. A terminated daemon is restarted on the next call.
+   */
+  static @Nullable SpawnDaemon getInstance() {
+    synchronized (ourLock) {
+      if (ourInstance != null && !ourInstance.myStopped) {
+        return ourInstance;
+      }
+      ourInstance = null;
+      if (ourUnavailable) {
+        return null;
+      }
+      try {
+        File helper = PtyUtil.resolveNativeFile("pty4j-unix-spawn-helper");
+        if (!helper.canExecute()) {
+          throw new IOException(helper + " is not found");
+        }
+        ourInstance = new SpawnDaemon(helper);
+      }
+      catch (Throwable t) {
+        LOG.warn("Spawn daemon is not available, processes are launched without it", t);
+        ourUnavailable = true;
+      }
+      return ourInstance;
+    }
+  }
+
+  /**
+   * Launches the command in the pty and waits until it's executed. {@code onExit} is called on the reader thread
+   * with the exit code once the child has terminated. It should return quickly.
+   * If {@code winSize} is not null, the child applies it to the pty before executing the command.
+   *
+   * @return pid of the child
+   * @throws UnixPtyExecException if the command cannot be executed
+   */
+  int spawn(@NotNull String[] command, @NotNull String[] environment, @NotNull String workingDirectory,
+            @NotNull String slaveName, @Nullable String errSlaveName, boolean console, @Nullable WinSize winSize,
+            @NotNull IntConsumer onExit) throws IOException {
+    int id = myNextRequestId.incrementAndGet();
+    Request request = new Request(command[0], workingDirectory, onExit);
+    myRequests.put(id, request);
+    if (myStopped) {
+      myRequests.remove(id);
+      throw new IOException("Spawn daemon has terminated");
+    }
+    byte[] data = encodeRequest(id, command, environment, workingDirectory, slaveName, errSlaveName, console, winSize);
+    try {
+      synchronized (myOutput) {
+        myOutput.write(data);
+        myOutput.flush();
+      }
+    }
+    catch (IOException e) {
+      myRequests.remove(id);
+      throw e;
+    }
+    try {
+      return request.myPid.join();
+    }
+    catch (CompletionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException)e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  private static byte @NotNull [] encodeRequest(int id, @NotNull String[] command, @NotNull String[] environment,
+                                                @NotNull String workingDirectory, @NotNull String slaveName,
+                                                @Nullable String errSlaveName, boolean console,
+                                                @Nullable WinSize winSize) {
+    ByteArrayOutputStream payload = new ByteArrayOutputStream(256);
+    writeInt(payload, id);
+    writeInt(payload, console ? 1 : 0);
+    writeInt(payload, command.length);
+    writeInt(payload, environment.length);
+    writeInt(payload, winSize != null ? winSize.getColumns() : 0);
+    writeInt(payload, winSize != null ? winSize.getRows() : 0);
+    writeString(payload, workingDirectory);
+    writeString(payload, slaveName);
+    writeString(payload, errSlaveName != null ? errSlaveName : "");
+    for (String arg : command) {
+      writeString(payload, arg);
+    }
+    for (String env : environment) {
+      writeString(payload, env);
+    }
+    ByteArrayOutputStream data = new ByteArrayOutputStream(payload.size() + 4);
+    writeInt(data, payload.size());
+    data.writeBytes(payload.toByteArray());
+    return data.toByteArray();
+  }
+
+  private static void writeInt(@NotNull ByteArrayOutputStream out, int value) {
+    out.writeBytes(ByteBuffer.allocate(4).order(ByteOrder.nativeOrder()).putInt(value).array());
+  }
+
+  private static void writeString(@NotNull ByteArrayOutputStream out, @NotNull String value) {
+    // NUL-terminated, in the same encoding as JNA passes strings to exec_pty
+    out.writeBytes(Native.toByteArray(value));
+  }
+
+  /**
+   * @return the message, or null if the daemon has closed its output
+   */
+  private @Nullable ByteBuffer readMessage() throws IOException {
+    byte[] message = new byte[MESSAGE_SIZE];
+    int count = myInput.readNBytes(message, 0, MESSAGE_SIZE);
+    if (count < MESSAGE_SIZE) {
+      return null;
+    }
+    return ByteBuffer.wrap(message).order(ByteOrder.nativeOrder());
+  }
+
+  @Override
+  public void run() {
+    try {
+      ByteBuffer message;
+      while ((message = readMessage()) != null) {
+        handleMessage(message.getInt(0), message.getInt(4), message.getInt(8));
+      }
+      LOG.error("Spawn daemon has terminated, exit code: " + myProcess.waitFor());
+    }
+    catch (Throwable t) {
+      LOG.error("Spawn daemon reader has failed", t);
+    }
+    stop();
+  }
+
+  private void handleMessage(int type, int key, int value) {
+    if (type == MSG_SPAWNED) {
+      Request request = myRequests.remove(key);
+      if (request != null) {
+        // registered before the request completes, so EXITED that follows it can't be missed
+        myChildren.put(value, request.myOnExit);
+        request.myPid.complete(value);
+      }
+    }
+    else if (type == MSG_FAILED) {
+      Request request = myRequests.remove(key);
+      if (request != null) {
+        // value is errno | step << 16
+        UnixPtyExecException.Step step = UnixPtyExecException.Step.fromNative(value >>> 16);
+        request.myPid.completeExceptionally(
+          new UnixPtyExecException(request.myExecutable, request.myDirectory, step, value & 0xffff));
+      }
+    }
+    else if (type == MSG_EXITED) {
+      IntConsumer onExit = myChildren.remove(key);
+      if (onExit != null) {
+        childExited(key, onExit, value);
+      }
+    }
+    else {
+      LOG.warn("Unexpected spawn daemon message: type=" + type + ", key=" + key + ", value=" + value);
+    }
+  }
+
+  private void stop() {
+    myStopped = true;
+    myProcess.destroy();
+    for (Integer id : myRequests.keySet()) {
+      Request request = myRequests.remove(id);
+      if (request != null) {
+        request.myPid.completeExceptionally(new IOException("Spawn daemon has terminated"));
+      }
+    }
+    // the children are orphaned and cannot be waited for anymore
+    for (Integer pid : myChildren.keySet()) {
+      IntConsumer onExit = myChildren.remove(pid);
+      if (onExit != null) {
+        LOG.warn("Exit code of pid=" + pid + " is lost with the spawn daemon");
+        childExited(pid, onExit, -1);
+      }
+    }
+  }
+
+  private static void childExited(int pid, @NotNull IntConsumer onExit, int exitCode) {
+    try {
+      onExit.accept(exitCode);
+    }
+    catch (Throwable t) {
+      LOG.error("Failed to handle termination of pid=" + pid, t);
+    }
+  }
+
+  private static final class Request {
+    private final String myExecutable;
+    private final String myDirectory;
+    private final IntConsumer myOnExit;
+    private final CompletableFuture<Integer> myPid = new CompletableFuture<>();
+
+    private Request(@NotNull String executable, @NotNull String directory, @NotNull IntConsumer onExit) {
+      myExecutable = executable;
+      myDirectory = directory;
+      myOnExit = onExit;
+    }
+  }
+}
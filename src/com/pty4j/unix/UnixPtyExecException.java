@@ -0,0 +1,74 @@
+package com.pty4j.unix;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a process cannot be started in a pty: the child has failed before executing the program,
+ * or the program cannot be executed.
+ * <p>
+ * It's thrown by {@link com.pty4j.PtyProcessBuilder#start()} before any process streams are created,
+ * so there is no need to check whether a just started process is alive.
+ */
+public final class UnixPtyExecException extends IOException {
+
+  /**
+   * The step of starting the process that has failed, see {@code EXEC_PTY_STEP_*} in {@code exec_pty.h}.
+   */
+  public enum Step {
+    FIND_EXECUTABLE("find executable"),
+    FORK("fork"),
+    CHANGE_DIRECTORY("change directory"),
+    CREATE_SESSION("create session"),
+    OPEN_SLAVE("open pty slave"),
+    OPEN_ERR_SLAVE("open stderr pty slave"),
+    SET_PROCESS_GROUP("set process group"),
+    EXEC("execute"),
+    UNKNOWN("unknown step");
+
+    private final String myDescription;
+
+    Step(@NotNull String description) {
+      myDescription = description;
+    }
+
+    static @NotNull Step fromNative(int step) {
+      Step[] steps = values();
+      return step >= 1 && step < steps.length ? steps[step - 1] : UNKNOWN;
+    }
+  }
+
+  private final Step myStep;
+  private final int myErrno;
+
+  UnixPtyExecException(@NotNull String command, @NotNull String directory, @NotNull Step step, int errno) {
+    super("Cannot run program \"" + command + "\" (in directory \"" + directory + "\"): " + step.myDescription +
+          " failed, errno=" + errno + " (" + strerror(errno) + ")");
+    myStep = step;
+    myErrno = errno;
+  }
+
+  public @NotNull Step getStep() {
+    return myStep;
+  }
+
+  /**
+   * @return errno of the failed step, or 0 if unknown
+   */
+  public int getErrno() {
+    return myErrno;
+  }
+
+  private static @NotNull String strerror(int errno) {
+    if (errno <= 0) {
+      return "unknown";
+    }
+    try {
+      return PtyHelpers.getInstance().strerror(errno);
+    }
+    catch (Throwable t) {
+      return "unknown";
+    }
+  }
+}
@@ -10,7 +10,6 @@ package com.pty4j.unix;
 import com.pty4j.PtyProcess;
 import com.pty4j.PtyProcessOptions;
 import com.pty4j.WinSize;
-import com.pty4j.util.PtyUtil;
 import com.sun.jna.Platform;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -22,6 +21,9 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 public final class UnixPtyProcess extends PtyProcess {
   private static final int NOOP = 0;
@@ -37,12 +39,18 @@ public final class UnixPtyProcess extends PtyProcess {
 
   private int pid = 0;
   private int myExitCode;
-  private boolean isDone;
+  private volatile boolean isDone;
+  private final CompletableFuture<Process> myExitFuture = new CompletableFuture<>();
   private OutputStream out;
   private InputStream in;
   private InputStream err;
   private final Pty myPty;
   private final Pty myErrPty;
+  // the full path of the executable if it's known in advance, see PtyProcessOptions.getResolvedExecutable()
+  private String myResolvedExecutable;
+  private long myPtyAllocationNanos;
+  private long mySpawnNanos;
+  private final @Nullable PtySessionMetrics myMetrics;
 
   @Deprecated
   public UnixPtyProcess(String[] cmdarray, String[] envp, String dir, Pty pty, Pty errPty, boolean consoleMode) throws IOException {
@@ -56,22 +64,34 @@ public final class UnixPtyProcess extends PtyProcess {
     myPty = pty;
     myErrPty = errPty;
     myLauncher = null;
-    execInPty(cmdarray, envp, dir, pty, errPty, null, null);
+    myMetrics = null;
+    execInPty(cmdarray, envp, dir, pty, errPty, null, null, false);
   }
 
   public UnixPtyProcess(@NotNull PtyProcessOptions options, boolean consoleMode) throws IOException {
     myConsoleMode = consoleMode;
-    myPty = new Pty(consoleMode, options.isUnixOpenTtyToPreserveOutputAfterTermination());
-    myErrPty = options.isRedirectErrorStream() || !consoleMode ? null : new Pty();
+    boolean useReactor = options.isUnixUseSharedReactor();
+    PtyPool pool = options.getUnixPtyPool();
+    long startTimeNanos = System.nanoTime();
+    myPty = new Pty(pool != null ? pool.take() : null, options.isUnixOpenTtyToPreserveOutputAfterTermination(), useReactor);
+    myErrPty = options.isRedirectErrorStream() || !consoleMode ? null : new Pty(pool != null ? pool.take() : null, false, useReactor);
+    long ptyAllocatedNanos = System.nanoTime();
+    myPtyAllocationNanos = ptyAllocatedNanos - startTimeNanos;
+    myMetrics = PtyMetrics.newSession();
+    myPty.setMetrics(myMetrics);
+    if (myErrPty != null) myErrPty.setMetrics(myMetrics);
     String dir = Objects.requireNonNullElse(options.getDirectory(), ".");
     ProcessBuilderUnixLauncher launcher = null;
-    if (Platform.isMac() && Platform.isIntel() && options.isSpawnProcessUsingJdkOnMacIntel()) {
+    // pty4j.launch.mechanism=spawn-helper forces the JDK launcher on any Unix, see README.md
+    if (Platform.isMac() && Platform.isIntel() && options.isSpawnProcessUsingJdkOnMacIntel() ||
+        "spawn-helper".equals(System.getProperty("pty4j.launch.mechanism"))) {
       try {
         launcher = new ProcessBuilderUnixLauncher(
           options.getCommandWrapper().toList(), options.getEnvironment(), dir,
           myPty, myErrPty,
           consoleMode,
-          options.getInitialColumns(), options.getInitialRows(), this
+          options.getInitialColumns(), options.getInitialRows(),
+          this
         );
       }
       catch (Exception e) {
@@ -80,21 +100,70 @@ public final class UnixPtyProcess extends PtyProcess {
     }
     myLauncher = launcher;
     if (myLauncher == null) {
-      execInPty(options.getCommandWrapper().toArray(), PtyUtil.toStringArray(options.getEnvironment()), dir, myPty, myErrPty,
-                options.getInitialColumns(), options.getInitialRows());
+      myResolvedExecutable = options.getResolvedExecutable();
+      try {
+        execInPty(options.getCommandArray(), options.getEnvironmentArray(), dir, myPty, myErrPty,
+                  options.getInitialColumns(), options.getInitialRows(), options.isUnixUseSpawnDaemon());
+      }
+      catch (IOException e) {
+        if (e instanceof UnixPtyExecException) {
+          // no process will ever use these ptys
+          myPty.close();
+          if (myErrPty != null) myErrPty.close();
+        }
+        PtyMetrics.getInstance().spawnFailed(e);
+        throw e;
+      }
     }
     else {
       launcher.getProcess().onExit().whenComplete((process, e) -> {
         myPty.breakRead();
         if (myErrPty != null) myErrPty.breakRead();
+        if (myMetrics != null) PtyMetrics.getInstance().sessionEnded(myMetrics);
       });
     }
+    mySpawnNanos = System.nanoTime() - ptyAllocatedNanos;
+    if (myMetrics != null) {
+      PtyMetrics.getInstance().sessionStarted(myMetrics, pid(), myPtyAllocationNanos, mySpawnNanos);
+    }
   }
 
   public Pty getPty() {
     return myPty;
   }
 
+  /**
+   * @return the time spent to open the ptys of the process, in nanoseconds
+   */
+  public long getPtyAllocationNanos() {
+    return myPtyAllocationNanos;
+  }
+
+  /**
+   * @return the time spent in the parent from the opened ptys until the child is launched, in nanoseconds.
+   * A child started with {@code clone(CLONE_VM|CLONE_VFORK)} has set the initial window size and executed the program
+   * by then, while a forked child, the spawn helper or the spawn daemon may still be doing it
+   */
+  public long getSpawnNanos() {
+    return mySpawnNanos;
+  }
+
+  /**
+   * @return the I/O counters of this process, or null if {@link PtyMetrics} were disabled when it was started
+   */
+  public @Nullable PtySessionMetrics getMetrics() {
+    return myMetrics;
+  }
+
+  /**
+   * Returns a channel reading the process output and writing its input, an alternative to
+   * {@link #getInputStream()} and {@link #getOutputStream()} that works with direct {@link java.nio.ByteBuffer}s
+   * without copying them to the heap.
+   */
+  public @NotNull PtyChannel getChannel() {
+    return myPty.getChannel();
+  }
+
   @Override
   protected void finalize() throws Throwable {
     closeUnusedStreams();
@@ -161,6 +230,46 @@ public final class UnixPtyProcess extends PtyProcess {
     return myExitCode;
   }
 
+  @Override
+  public boolean waitFor(long timeout, @NotNull TimeUnit unit) throws InterruptedException {
+    if (myLauncher != null) {
+      return myLauncher.getProcess().waitFor(timeout, unit);
+    }
+    if (isDone) return true;
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    synchronized (this) {
+      long remaining;
+      while (!isDone && (remaining = deadline - System.nanoTime()) > 0) {
+        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+      }
+      return isDone;
+    }
+  }
+
+  /**
+   * Doesn't throw or take a lock, so it's cheap to call often.
+   */
+  @Override
+  public boolean isAlive() {
+    if (myLauncher != null) {
+      return myLauncher.getProcess().isAlive();
+    }
+    return !isDone;
+  }
+
+  /**
+   * Unlike the default implementation, doesn't occupy a thread per call: the returned future is completed when
+   * the process is reaped (see {@link ChildReaper}). Dependent actions are run asynchronously in
+   * {@link java.util.concurrent.ForkJoinPool#commonPool()}, so they can't block the reaper.
+   */
+  @Override
+  public CompletableFuture<Process> onExit() {
+    if (myLauncher != null) {
+      return myLauncher.getProcess().onExit().thenApply(process -> this);
+    }
+    return myExitFuture.thenApplyAsync(Function.identity());
+  }
+
   /**
    * See java.lang.Process#exitValue ();
    */
@@ -205,7 +314,8 @@ public final class UnixPtyProcess extends PtyProcess {
 
   private void execInPty(String[] command, String[] environment, String workingDirectory, Pty pty, Pty errPty,
                          @Nullable Integer initialColumns,
-                         @Nullable Integer initialRows) throws IOException {
+                         @Nullable Integer initialRows,
+                         boolean useSpawnDaemon) throws IOException {
     if (environment == null) {
       environment = new String[0];
     }
@@ -213,11 +323,62 @@ public final class UnixPtyProcess extends PtyProcess {
     final int masterFD = pty.getMasterFD();
     final String errSlaveName = errPty == null ? null : errPty.getSlaveName();
     final int errMasterFD = errPty == null ? -1 : errPty.getMasterFD();
-    // int fdm = pty.get
-    Reaper reaper = new Reaper(command, environment, workingDirectory, slaveName, masterFD, errSlaveName, errMasterFD, myConsoleMode);
-
-    reaper.setDaemon(true);
-    reaper.start();
+    WinSize initialSize = null;
+    if (Boolean.getBoolean("unix.pty.init") || initialColumns != null || initialRows != null) {
+      int cols = initialColumns != null ? initialColumns : Integer.getInteger("unix.pty.cols", 80);
+      int rows = initialRows != null ? initialRows : Integer.getInteger("unix.pty.rows", 25);
+      initialSize = new WinSize(cols, rows);
+    }
+    SpawnDaemon spawnDaemon = useSpawnDaemon ? SpawnDaemon.getInstance() : null;
+    ChildReaper sharedReaper = spawnDaemon == null ? ChildReaper.getInstance() : null;
+    Reaper reaper = null;
+    if (spawnDaemon != null) {
+      int newPid;
+      try {
+        newPid = spawnDaemon.spawn(command, environment, workingDirectory, slaveName, errSlaveName, myConsoleMode,
+                                   initialSize, this::processExited);
+      }
+      catch (UnixPtyExecException e) {
+        throw e;
+      }
+      catch (IOException e) {
+        throw new IOException("Exec_tty error:" + e.getMessage(), e);
+      }
+      synchronized (this) {
+        pid = newPid;
+      }
+    }
+    else if (sharedReaper != null) {
+      int newPid;
+      try {
+        newPid = exec(command, environment, workingDirectory, slaveName, masterFD, errSlaveName, errMasterFD, myConsoleMode,
+                      initialSize);
+      }
+      catch (UnixPtyExecException e) {
+        throw e;
+      }
+      catch (Exception e) {
+        throw new IOException("Exec_tty error:" + e.getMessage(), e);
+      }
+      if (newPid == -1) {
+        throw new IOException("Exec_tty error:Unknown reason");
+      }
+      synchronized (this) {
+        pid = newPid;
+      }
+      if (!sharedReaper.register(newPid, this::processExited)) {
+        Thread waiter = new Thread(() -> processExited(PtyHelpers.getPtyExecutor().waitForProcessExitAndGetExitCode(newPid)),
+                                   "PtyProcess Reaper for " + Arrays.toString(command));
+        waiter.setDaemon(true);
+        waiter.start();
+      }
+    }
+    else {
+      reaper = new Reaper(command, environment, workingDirectory, slaveName, masterFD, errSlaveName, errMasterFD, myConsoleMode,
+                          initialSize);
+      reaper.setDaemon(true);
+      reaper.start();
+    }
     // Wait until the subprocess is started or error.
     synchronized (this) {
       while (pid == 0) {
@@ -228,33 +389,27 @@ public final class UnixPtyProcess extends PtyProcess {
           Thread.currentThread().interrupt();
         }
       }
-
-      boolean init = Boolean.getBoolean("unix.pty.init") || initialColumns != null || initialRows != null;
-      if (init) {
-        int cols = initialColumns != null ? initialColumns : Integer.getInteger("unix.pty.cols", 80);
-        int rows = initialRows != null ? initialRows : Integer.getInteger("unix.pty.rows", 25);
-        WinSize size = new WinSize(cols, rows);
-
-        // On OSX, there is a race condition with pty initialization
-        // If we call com.pty4j.unix.Pty.setTerminalSize(com.pty4j.WinSize) too early, we can get ENOTTY
-        for (int attempt = 0; attempt < 1000; attempt++) {
-          try {
-            myPty.setWindowSize(size, this);
-            break;
-          }
-          catch (UnixPtyException e) {
-            if (e.getErrno() != CLibrary.ENOTTY) {
-              break;
-            }
-          }
-        }
-      }
     }
     if (pid == -1) {
+      if (reaper.getException() instanceof UnixPtyExecException) {
+        throw (UnixPtyExecException)reaper.getException();
+      }
       throw new IOException("Exec_tty error:" + reaper.getErrorMessage(), reaper.getException());
     }
   }
 
+  private void processExited(int exitCode) {
+    synchronized (this) {
+      myExitCode = exitCode;
+      isDone = true;
+      notifyAll();
+    }
+    myPty.breakRead();
+    if (myErrPty != null) myErrPty.breakRead();
+    if (myMetrics != null) PtyMetrics.getInstance().sessionEnded(myMetrics);
+    myExitFuture.complete(this);
+  }
+
   /**
    * Close the streams on this side.
    * <p/>
@@ -301,7 +456,7 @@ public final class UnixPtyProcess extends PtyProcess {
   }
 
   int exec(String[] cmd, String[] envp, String dirname, String slaveName, int masterFD,
-           String errSlaveName, int errMasterFD, boolean console) throws IOException {
+           String errSlaveName, int errMasterFD, boolean console, @Nullable WinSize initialSize) throws IOException {
     int pid = -1;
 
     if (cmd == null) {
@@ -312,7 +467,13 @@ public final class UnixPtyProcess extends PtyProcess {
       return pid;
     }
 
-    return PtyHelpers.execPty(cmd[0], cmd, envp, dirname, slaveName, masterFD, errSlaveName, errMasterFD, console);
+    String executable = myResolvedExecutable;
+    if (executable == null) {
+      // if it's not found, pfind() of libpty makes the final decision
+      executable = Objects.requireNonNullElse(ExecutableCache.getInstance().find(cmd[0], envp), cmd[0]);
+    }
+    return PtyHelpers.execPty(executable, cmd, envp, dirname, slaveName, masterFD, errSlaveName, errMasterFD, console,
+                              initialSize);
   }
 
   @Override
@@ -343,7 +504,7 @@ public final class UnixPtyProcess extends PtyProcess {
     return myLauncher != null ? myLauncher.getProcess().pid() : pid;
   }
 
-  // Spawn a thread to handle the forking and waiting.
+  // Spawn a thread to handle the forking and waiting, unless the shared ChildReaper is used.
   // We do it this way because on linux the SIGCHLD is send to the one thread. So do the forking and then wait in the
   // same thread.
   class Reaper extends Thread {
@@ -355,10 +516,11 @@ public final class UnixPtyProcess extends PtyProcess {
     private String myErrSlaveName;
     private int myErrMasterFD;
     private boolean myConsole;
+    private WinSize myInitialSize;
     volatile Throwable myException;
 
     public Reaper(String[] command, String[] environment, String workingDirectory, String slaveName, int masterFD, String errSlaveName,
-                  int errMasterFD, boolean console) {
+                  int errMasterFD, boolean console, @Nullable WinSize initialSize) {
       super("PtyProcess Reaper for " + Arrays.toString(command));
       myCommand = command;
       myEnv = environment;
@@ -368,11 +530,12 @@ public final class UnixPtyProcess extends PtyProcess {
       myErrSlaveName = errSlaveName;
       myErrMasterFD = errMasterFD;
       myConsole = console;
+      myInitialSize = initialSize;
       myException = null;
     }
 
     int execute(String[] cmd, String[] env, String dir) throws IOException {
-      return exec(cmd, env, dir, mySlaveName, myMasterFD, myErrSlaveName, myErrMasterFD, myConsole);
+      return exec(cmd, env, dir, mySlaveName, myMasterFD, myErrSlaveName, myErrMasterFD, myConsole, myInitialSize);
     }
 
     @Override
@@ -390,13 +553,7 @@ public final class UnixPtyProcess extends PtyProcess {
       }
       if (pid != -1) {
         // Sync with spawner and notify when done.
-        myExitCode = PtyHelpers.getPtyExecutor().waitForProcessExitAndGetExitCode(pid);
-        synchronized (UnixPtyProcess.this) {
-          isDone = true;
-          UnixPtyProcess.this.notifyAll();
-        }
-        myPty.breakRead();
-        if (myErrPty != null) myErrPty.breakRead();
+        processExited(PtyHelpers.getPtyExecutor().waitForProcessExitAndGetExitCode(pid));
       }
     }
 
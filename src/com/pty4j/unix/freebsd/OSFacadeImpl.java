@@ -78,8 +78,13 @@ public class OSFacadeImpl implements PtyHelpers.OSFacade {
     int login_tty(int fd);
   }
 
-  private static final FreeBSD_C_lib m_Clib = Native.loadLibrary("c", FreeBSD_C_lib.class);
-  private static final FreeBSD_Util_lib m_Utillib = Native.loadLibrary("util", FreeBSD_Util_lib.class);
+  // libraries are loaded on first use of a function from them
+  private static final class CLibHolder {
+    private static final FreeBSD_C_lib INSTANCE = Native.loadLibrary("c", FreeBSD_C_lib.class);
+  }
+  private static final class UtilLibHolder {
+    private static final FreeBSD_Util_lib INSTANCE = Native.loadLibrary("util", FreeBSD_Util_lib.class);
+  }
 
   // CONSTUCTORS
 
@@ -105,57 +110,57 @@ public class OSFacadeImpl implements PtyHelpers.OSFacade {
 
   @Override
   public int kill(int pid, int signal) {
-    return m_Clib.kill(pid, signal);
+    return CLibHolder.INSTANCE.kill(pid, signal);
   }
 
   @Override
   public int waitpid(int pid, int[] stat, int options) {
-    return m_Clib.waitpid(pid, stat, options);
+    return CLibHolder.INSTANCE.waitpid(pid, stat, options);
   }
 
   @Override
   public int sigprocmask(int how, IntByReference set, IntByReference oldset) {
-    return m_Clib.sigprocmask(how, set, oldset);
+    return CLibHolder.INSTANCE.sigprocmask(how, set, oldset);
   }
 
   @Override
   public String strerror(int errno) {
-    return m_Clib.strerror(errno);
+    return CLibHolder.INSTANCE.strerror(errno);
   }
 
   @Override
   public int getpt() {
-    return m_Clib.posix_openpt(CLibrary.O_RDWR | CLibrary.O_NOCTTY);
+    return CLibHolder.INSTANCE.posix_openpt(CLibrary.O_RDWR | CLibrary.O_NOCTTY);
   }
 
   @Override
   public int grantpt(int fd) {
-    return m_Clib.grantpt(fd);
+    return CLibHolder.INSTANCE.grantpt(fd);
   }
 
   @Override
   public int unlockpt(int fd) {
-    return m_Clib.unlockpt(fd);
+    return CLibHolder.INSTANCE.unlockpt(fd);
   }
 
   @Override
   public int close(int fd) {
-    return m_Clib.close(fd);
+    return CLibHolder.INSTANCE.close(fd);
   }
 
   @Override
   public String ptsname(int fd) {
-    return m_Clib.ptsname(fd);
+    return CLibHolder.INSTANCE.ptsname(fd);
   }
 
   @Override
   public int killpg(int pid, int sig) {
-    return m_Clib.killpg(pid, sig);
+    return CLibHolder.INSTANCE.killpg(pid, sig);
   }
 
   @Override
   public int fork() {
-    return m_Clib.fork();
+    return CLibHolder.INSTANCE.fork();
   }
 
   @Override
@@ -165,41 +170,41 @@ public class OSFacadeImpl implements PtyHelpers.OSFacade {
 
   @Override
   public int setsid() {
-    return m_Clib.setsid();
+    return CLibHolder.INSTANCE.setsid();
   }
 
   @Override
   public int getpid() {
-    return m_Clib.getpid();
+    return CLibHolder.INSTANCE.getpid();
   }
 
   @Override
   public int setpgid(int pid, int pgid) {
-    return m_Clib.setpgid(pid, pgid);
+    return CLibHolder.INSTANCE.setpgid(pid, pgid);
   }
   
   @Override
   public void dup2(int fds, int fileno) {
-    m_Clib.dup2(fds, fileno);
+    CLibHolder.INSTANCE.dup2(fds, fileno);
   }
 
   @Override
   public int getppid() {
-    return m_Clib.getppid();
+    return CLibHolder.INSTANCE.getppid();
   }
 
   @Override
   public void unsetenv(String s) {
-    m_Clib.unsetenv(s);
+    CLibHolder.INSTANCE.unsetenv(s);
   }
 
   @Override
   public int login_tty(int fd) {
-    return m_Utillib.login_tty(fd);
+    return UtilLibHolder.INSTANCE.login_tty(fd);
   }
 
   @Override
   public void chdir(String dirpath) {
-    m_Clib.chdir(dirpath);
+    CLibHolder.INSTANCE.chdir(dirpath);
   }
 }
@@ -9,18 +9,29 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.JarURLConnection;
 import java.net.URL;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.jar.Manifest;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+/**
+ * Extracts the bundled native files of the current OS and architecture.
+ * <p>
+ * If pty4j.jar has a content hash of the bundled natives in its manifest, the files are extracted once per user
+ * to a persistent cache directory named after the hash, and later JVMs only read its stamp file. The cache directory
+ * is created in {@code pty4j.native.cache.dir}, {@code pty4j.tmpdir} or the per-user cache directory of the OS.
+ * Otherwise, the files are extracted to a temp directory, or to {@code pty4j.tmpdir}, on each start.
+ */
 class ExtractedNative {
 
   private static final Logger LOG = LoggerFactory.getLogger(ExtractedNative.class);
@@ -31,6 +42,7 @@ class ExtractedNative {
       "freebsd/x86-64/libpty.so",
       "linux/x86/libpty.so",
       "linux/x86-64/libpty.so",
+      "linux/x86-64/pty4j-unix-spawn-helper",
       "linux/aarch64/libpty.so",
       "linux/arm/libpty.so",
       "linux/ppc64le/libpty.so",
@@ -51,11 +63,17 @@ class ExtractedNative {
       "win/x86-64/winpty.dll"
   };
   static final String DEFAULT_RESOURCE_NAME_PREFIX = "resources/com/pty4j/native/";
-  private static final Set<String> EXECUTABLE_PERMISSION = Set.of("darwin/pty4j-unix-spawn-helper");
+  private static final Set<String> EXECUTABLE_PERMISSION = Set.of("darwin/pty4j-unix-spawn-helper",
+                                                                  "linux/x86-64/pty4j-unix-spawn-helper");
+  // written by build.gradle.kts
+  static final String CONTENT_HASH_ATTRIBUTE = "Pty4J-Native-Hash";
+  static final String STAMP_FILE_NAME = ".stamp";
 
   private static final ExtractedNative INSTANCE = new ExtractedNative();
   private String myResourceOsArchSubPath;
   private String myResourceNamePrefix;
+  private final String myContentHash;
+  private final Path myCacheDir;
   private boolean myInitialized;
   private volatile File myDestDir;
 
@@ -64,8 +82,19 @@ class ExtractedNative {
   }
 
   ExtractedNative(@Nullable String resourceOsArchSubPath, @Nullable String resourceNamePrefix) {
+    this(resourceOsArchSubPath, resourceNamePrefix, null, null);
+  }
+
+  /**
+   * @param contentHash the hash of the bundled natives, or null to read it from the manifest of pty4j.jar
+   * @param cacheDir    the persistent cache directory, or null to use the default one
+   */
+  ExtractedNative(@Nullable String resourceOsArchSubPath, @Nullable String resourceNamePrefix,
+                  @Nullable String contentHash, @Nullable Path cacheDir) {
     myResourceOsArchSubPath = resourceOsArchSubPath;
     myResourceNamePrefix = resourceNamePrefix;
+    myContentHash = contentHash;
+    myCacheDir = cacheDir;
   }
 
   @NotNull
@@ -98,6 +127,12 @@ class ExtractedNative {
 
   private void doInit() throws IOException {
     long startTimeNano = System.nanoTime();
+    Path cachedDir = getCachedDestDir();
+    if (cachedDir != null) {
+      myDestDir = cachedDir.toFile();
+      LOG.info("Found pty4j native in " + cachedDir + " in " + pastTime(startTimeNano));
+      return;
+    }
     Path destDir = getOrCreateDestDir();
     if (LOG.isDebugEnabled()) {
       LOG.debug("Found " + destDir + " in " + pastTime(startTimeNano));
@@ -137,6 +172,152 @@ class ExtractedNative {
     LOG.info("Extracted pty4j native in " + pastTime(startTimeNano));
   }
 
+  /**
+   * @return the persistent cache directory with extracted files, or null if it cannot be used
+   */
+  private @Nullable Path getCachedDestDir() {
+    if (!Boolean.parseBoolean(System.getProperty("pty4j.native.cache", "true"))) {
+      return null;
+    }
+    String contentHash = myContentHash != null ? myContentHash : readContentHash();
+    if (contentHash == null || !contentHash.matches("[0-9a-f]{16,128}")) {
+      return null;
+    }
+    Path cacheDir = myCacheDir != null ? myCacheDir : getDefaultCacheDir();
+    if (cacheDir == null || !cacheDir.isAbsolute()) {
+      return null;
+    }
+    try {
+      return getOrCreateCachedDir(cacheDir, contentHash);
+    }
+    catch (IOException | RuntimeException e) {
+      LOG.warn("Cannot use pty4j native cache " + cacheDir + ", extracting to a temp directory", e);
+      return null;
+    }
+  }
+
+  /**
+   * The files are extracted to a temp directory next to the final one and renamed atomically along with
+   * the stamp file, so a directory with a stamp is always complete, and concurrent JVMs don't see partial files.
+   * If another JVM wins the rename, its directory is used.
+   */
+  private @NotNull Path getOrCreateCachedDir(@NotNull Path cacheDir, @NotNull String contentHash) throws IOException {
+    Path destDir = cacheDir.resolve(myResourceOsArchSubPath.replace('/', '-') + "-" + contentHash);
+    if (isStamped(destDir, contentHash)) {
+      return destDir;
+    }
+    if (Files.exists(destDir) && !isStamped(destDir, contentHash)) {
+      // left by a foreign tool or damaged, not by a concurrent extraction
+      deleteRecursively(destDir);
+    }
+    createPrivateDirectories(cacheDir);
+    Path tempDir = Files.createTempDirectory(cacheDir, destDir.getFileName() + ".tmp-");
+    try {
+      for (String bundledResourceName : getBundledResourceNames()) {
+        copy(bundledResourceName, tempDir);
+      }
+      Files.write(tempDir.resolve(STAMP_FILE_NAME), contentHash.getBytes(StandardCharsets.UTF_8));
+      try {
+        Files.move(tempDir, destDir, StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (IOException e) {
+        if (!isStamped(destDir, contentHash)) {
+          throw e;
+        }
+      }
+      return destDir;
+    }
+    finally {
+      if (Files.exists(tempDir)) {
+        deleteRecursively(tempDir);
+      }
+    }
+  }
+
+  private static boolean isStamped(@NotNull Path dir, @NotNull String contentHash) {
+    try {
+      byte[] stamp = Files.readAllBytes(dir.resolve(STAMP_FILE_NAME));
+      return contentHash.equals(new String(stamp, StandardCharsets.UTF_8));
+    }
+    catch (IOException e) {
+      return false;
+    }
+  }
+
+  private static void createPrivateDirectories(@NotNull Path dir) throws IOException {
+    if (Files.isDirectory(dir)) {
+      return;
+    }
+    if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+      Files.createDirectories(dir, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+    }
+    else {
+      Files.createDirectories(dir);
+    }
+  }
+
+  private static void deleteRecursively(@NotNull Path dir) throws IOException {
+    List<Path> paths;
+    try (Stream<Path> stream = Files.walk(dir)) {
+      paths = stream.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+    }
+    for (Path path : paths) {
+      Files.deleteIfExists(path);
+    }
+  }
+
+  /**
+   * @return the content hash from the manifest of the jar with this class, or null if it's not loaded from a jar
+   */
+  private static @Nullable String readContentHash() {
+    URL classUrl = ExtractedNative.class.getResource(ExtractedNative.class.getSimpleName() + ".class");
+    if (classUrl == null || !"jar".equals(classUrl.getProtocol())) {
+      return null;
+    }
+    try {
+      URLConnection connection = classUrl.openConnection();
+      if (connection instanceof JarURLConnection) {
+        Manifest manifest = ((JarURLConnection)connection).getManifest();
+        return manifest != null ? manifest.getMainAttributes().getValue(CONTENT_HASH_ATTRIBUTE) : null;
+      }
+    }
+    catch (IOException e) {
+      LOG.warn("Cannot read manifest of " + classUrl, e);
+    }
+    return null;
+  }
+
+  /**
+   * @return {@code pty4j.native.cache.dir}, {@code pty4j.tmpdir} or the per-user cache directory of the OS
+   */
+  private static @Nullable Path getDefaultCacheDir() {
+    String cacheDir = System.getProperty("pty4j.native.cache.dir");
+    if (cacheDir != null && !cacheDir.trim().isEmpty()) {
+      return Paths.get(cacheDir);
+    }
+    // the directories named after the content hash can be shared by processes with different pty4j.jar versions
+    String staticParentDirPath = System.getProperty("pty4j.tmpdir");
+    if (staticParentDirPath != null && !staticParentDirPath.trim().isEmpty()) {
+      return Paths.get(staticParentDirPath);
+    }
+    if (Platform.isWindows()) {
+      String localAppData = System.getenv("LOCALAPPDATA");
+      return localAppData != null && !localAppData.isEmpty() ? Paths.get(localAppData, "pty4j", "cache") : null;
+    }
+    String home = System.getProperty("user.home");
+    if (home == null || home.isEmpty() || "?".equals(home)) {
+      return null;
+    }
+    if (Platform.isMac()) {
+      return Paths.get(home, "Library", "Caches", "pty4j");
+    }
+    String xdgCacheHome = System.getenv("XDG_CACHE_HOME");
+    if (xdgCacheHome != null && xdgCacheHome.startsWith("/")) {
+      return Paths.get(xdgCacheHome, "pty4j");
+    }
+    return Paths.get(home, ".cache", "pty4j");
+  }
+
   @NotNull
   private Path getOrCreateDestDir() throws IOException {
     String staticParentDirPath = System.getProperty("pty4j.tmpdir");
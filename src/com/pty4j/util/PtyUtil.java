@@ -39,6 +39,15 @@ public class PtyUtil {
     return new File(destDir, fileName);
   }
 
+  /**
+   * Extracts the bundled native files, unless {@link #PREFERRED_NATIVE_FOLDER_KEY} is set.
+   */
+  public static void extractNativeFiles() throws IllegalStateException {
+    if (getPreferredLibPtyFolder() == null) {
+      ExtractedNative.getInstance().getDestDir();
+    }
+  }
+
   private static @NotNull File resolveNativeFileFromFS(@NotNull File libPtyFolder, @NotNull String fileName) {
     String nativeLibraryResourcePath = getNativeLibraryOsArchSubPath();
     return new File(new File(libPtyFolder, nativeLibraryResourcePath), fileName);
@@ -0,0 +1,254 @@
+package com.pty4j;
+
+import com.sun.jna.Platform;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Churns many sessions through start/stream/destroy cycles and fails if file descriptors, threads or memory grow,
+ * then prints how fds, threads, memory and idle CPU scale with the number of live sessions.
+ * <p>
+ * Linux only, run with {@code ./gradlew stressTest}. The load is configured with {@code pty4j.stress.*} Gradle
+ * properties: {@code sessions} (concurrent sessions while churning), {@code cycles} (sessions started in total)
+ * and {@code scaling} (comma-separated numbers of live sessions for the scaling curve). The task runs with a fixed heap,
+ * so that RSS grows only with native memory.
+ */
+public class PtyStressTest {
+
+  private static final int SESSIONS = Integer.getInteger("pty4j.stress.sessions", 32);
+  private static final int CYCLES = Integer.getInteger("pty4j.stress.cycles", 1000);
+  private static final int[] SCALING_LEVELS =
+    Arrays.stream(System.getProperty("pty4j.stress.scaling", "1,16,64,256").split(",")).mapToInt(Integer::parseInt).toArray();
+  private static final int STREAMED_BYTES = 64 * 1024;
+  // allowed growth after all sessions are gone, e.g. for a pool thread that hasn't timed out yet
+  private static final int FD_SLACK = 4;
+  private static final int THREAD_SLACK = 4;
+  private static final long RSS_SLACK_KB = 64 * 1024;
+
+  @Before
+  public void setUp() {
+    Assume.assumeTrue("/proc/self/fd is needed", Platform.isLinux());
+    TestUtil.setLocalPtyLib();
+  }
+
+  @Test
+  public void churnDoesNotLeak() throws Exception {
+    // starts the shared threads and loads the natives
+    churn(SESSIONS, SESSIONS * 2);
+    Snapshot before = Snapshot.take();
+    churn(SESSIONS, CYCLES);
+    Snapshot after = awaitSettled(before);
+    System.out.println("Before " + CYCLES + " sessions: " + before);
+    System.out.println("After " + CYCLES + " sessions:  " + after);
+    Assert.assertTrue("File descriptors leaked: " + before.myFds + " -> " + after.myFds,
+                      after.myFds <= before.myFds + FD_SLACK);
+    Assert.assertTrue("Threads leaked: " + before.myThreads + " -> " + after.myThreads,
+                      after.myThreads <= before.myThreads + THREAD_SLACK);
+    Assert.assertTrue("RSS grew: " + before.myRssKb + " KB -> " + after.myRssKb + " KB",
+                      after.myRssKb <= before.myRssKb + RSS_SLACK_KB);
+  }
+
+  @Test
+  public void scalingCurve() throws Exception {
+    churn(1, 4);
+    Snapshot base = Snapshot.take();
+    System.out.printf("%8s %8s %8s %10s %14s %10s %12s%n",
+                      "sessions", "fds", "threads", "RSS MB", "RSS/session KB", "native MB", "idle CPU %");
+    for (int sessions : SCALING_LEVELS) {
+      List<PtyProcess> processes = new ArrayList<>();
+      try {
+        for (int i = 0; i < sessions; i++) {
+          PtyProcess process = new PtyProcessBuilder(new String[]{"/bin/sh", "-c", "echo ready; exec cat"}).start();
+          startReader(process.getInputStream());
+          processes.add(process);
+        }
+        Thread.sleep(500);
+        Snapshot snapshot = Snapshot.take();
+        Thread.sleep(1000);
+        double cpuPercent = 100.0 * (Snapshot.processCpuNanos() - snapshot.myCpuNanos) / TimeUnit.SECONDS.toNanos(1);
+        System.out.printf("%8d %8d %8d %10.1f %14.1f %10s %12.1f%n", sessions, snapshot.myFds, snapshot.myThreads,
+                          snapshot.myRssKb / 1024.0, (snapshot.myRssKb - base.myRssKb) / (double)sessions,
+                          snapshot.myNativeCommittedKb >= 0 ? String.format("%.1f", snapshot.myNativeCommittedKb / 1024.0) : "n/a",
+                          cpuPercent);
+      }
+      finally {
+        for (PtyProcess process : processes) {
+          process.destroy();
+        }
+        for (PtyProcess process : processes) {
+          Assert.assertTrue(process.waitFor(10, TimeUnit.SECONDS));
+        }
+      }
+    }
+    Snapshot after = awaitSettled(base);
+    Assert.assertTrue("File descriptors leaked: " + base.myFds + " -> " + after.myFds, after.myFds <= base.myFds + FD_SLACK);
+    Assert.assertTrue("Threads leaked: " + base.myThreads + " -> " + after.myThreads,
+                      after.myThreads <= base.myThreads + THREAD_SLACK);
+  }
+
+  /**
+   * Runs {@code cycles} sessions, {@code concurrency} at a time. Each reads the streamed data and is then finished
+   * differently: by {@code destroy()} alone, as the {@link PtyProcess} comment allows, or with closed streams,
+   * with and without the shared reactor.
+   */
+  private static void churn(int concurrency, int cycles) throws Exception {
+    AtomicInteger next = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < concurrency; i++) {
+        futures.add(executor.submit(() -> {
+          int cycle;
+          while ((cycle = next.getAndIncrement()) < cycles) {
+            runSession(cycle);
+          }
+          return null;
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    }
+    finally {
+      executor.shutdown();
+      Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+  }
+
+  private static void runSession(int cycle) throws Exception {
+    PtyProcess process = new PtyProcessBuilder(new String[]{"/bin/sh", "-c", "head -c " + STREAMED_BYTES + " /dev/zero; exec cat"})
+      .setUnixUseSharedReactor(cycle % 4 >= 2)
+      .start();
+    InputStream inputStream = process.getInputStream();
+    byte[] buffer = new byte[8192];
+    int total = 0;
+    while (total < STREAMED_BYTES) {
+      int count = inputStream.read(buffer);
+      if (count < 0) {
+        throw new IOException("Unexpected end of output after " + total + " bytes in cycle " + cycle);
+      }
+      total += count;
+    }
+    if (cycle % 2 == 1) {
+      inputStream.close();
+      process.getOutputStream().close();
+      process.getErrorStream().close();
+    }
+    process.destroy();
+    Assert.assertTrue("Process is not terminated: " + process.pid(), process.waitFor(10, TimeUnit.SECONDS));
+  }
+
+  private static void startReader(@NotNull InputStream inputStream) {
+    Thread thread = new Thread(() -> {
+      byte[] buffer = new byte[8192];
+      try {
+        //noinspection StatementWithEmptyBody
+        while (inputStream.read(buffer) >= 0) {
+        }
+      }
+      catch (IOException ignored) {
+      }
+    }, "PtyStressTest Reader");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Waits until fds and threads drop to the baseline, as streams are closed and threads exit asynchronously.
+   */
+  private static @NotNull Snapshot awaitSettled(@NotNull Snapshot baseline) throws Exception {
+    long deadline = System.currentTimeMillis() + 10_000;
+    Snapshot snapshot = Snapshot.take();
+    while ((snapshot.myFds > baseline.myFds || snapshot.myThreads > baseline.myThreads) &&
+           System.currentTimeMillis() < deadline) {
+      Thread.sleep(100);
+      System.gc();
+      snapshot = Snapshot.take();
+    }
+    return snapshot;
+  }
+
+  private static final class Snapshot {
+    private static final Pattern NMT_TOTAL = Pattern.compile("Total: reserved=(\\d+)KB, committed=(\\d+)KB");
+
+    private final int myFds;
+    private final int myThreads;
+    private final long myRssKb;
+    private final long myNativeCommittedKb;
+    private final long myCpuNanos;
+
+    private Snapshot(int fds, int threads, long rssKb, long nativeCommittedKb, long cpuNanos) {
+      myFds = fds;
+      myThreads = threads;
+      myRssKb = rssKb;
+      myNativeCommittedKb = nativeCommittedKb;
+      myCpuNanos = cpuNanos;
+    }
+
+    static @NotNull Snapshot take() throws IOException {
+      int fds;
+      try (Stream<Path> stream = Files.list(Paths.get("/proc/self/fd"))) {
+        fds = (int)stream.count();
+      }
+      long rssKb = -1;
+      for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+        if (line.startsWith("VmRSS:")) {
+          rssKb = Long.parseLong(line.replaceAll("\\D", ""));
+        }
+      }
+      return new Snapshot(fds, ManagementFactory.getThreadMXBean().getThreadCount(), rssKb, nativeCommittedKb(),
+                          processCpuNanos());
+    }
+
+    /**
+     * @return the total native memory committed by the JVM, or -1 without {@code -XX:NativeMemoryTracking}
+     */
+    private static long nativeCommittedKb() {
+      try {
+        Object summary = ManagementFactory.getPlatformMBeanServer().invoke(
+          new ObjectName("com.sun.management:type=DiagnosticCommand"), "vmNativeMemory",
+          new Object[]{new String[]{"summary", "scale=KB"}}, new String[]{String[].class.getName()});
+        Matcher matcher = NMT_TOTAL.matcher(String.valueOf(summary));
+        return matcher.find() ? Long.parseLong(matcher.group(2)) : -1;
+      }
+      catch (Exception e) {
+        return -1;
+      }
+    }
+
+    static long processCpuNanos() {
+      java.lang.management.OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+      return bean instanceof com.sun.management.OperatingSystemMXBean
+             ? ((com.sun.management.OperatingSystemMXBean)bean).getProcessCpuTime()
+             : -1;
+    }
+
+    @Override
+    public String toString() {
+      return "fds=" + myFds + ", threads=" + myThreads + ", RSS=" + myRssKb + " KB" +
+             (myNativeCommittedKb >= 0 ? ", native committed=" + myNativeCommittedKb + " KB" : "");
+    }
+  }
+}
@@ -21,24 +21,46 @@
 package com.pty4j;
 
 
+import com.pty4j.unix.ExecutableCache;
+import com.pty4j.unix.PtyChannel;
 import com.pty4j.unix.PtyHelpers;
+import com.pty4j.unix.PtyMetrics;
+import com.pty4j.unix.PtyMetricsListener;
+import com.pty4j.unix.PtyPool;
+import com.pty4j.unix.PtySessionMetrics;
+import com.pty4j.unix.UnixPtyExecException;
+import com.pty4j.unix.UnixPtyProcess;
 import com.pty4j.windows.conpty.ConPtyLibrary;
 import com.pty4j.windows.winpty.WinPtyProcess;
+import com.sun.jna.Native;
 import com.sun.jna.Platform;
 import junit.framework.TestCase;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import testData.*;
 
+import javax.management.ObjectName;
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
@@ -299,6 +321,636 @@ public class PtyTest extends TestCase {
     assertProcessTerminatedBySignal(PtyHelpers.SIGPIPE, process);
   }
 
+  public void testExecCatWithSharedReactor() throws Exception {
+    if (!Platform.isLinux()) {
+      return;
+    }
+    PtyProcess process = new PtyProcessBuilder(new String[]{"cat"}).setUnixUseSharedReactor(true).start();
+    Gobbler stdout = startStdoutGobbler(process);
+
+    process.getOutputStream().write("Hello\n".getBytes(StandardCharsets.UTF_8));
+    process.getOutputStream().flush();
+    stdout.assertEndsWith("Hello\r\nHello\r\n");
+    process.getOutputStream().write(4); // Ctrl+D
+    process.getOutputStream().flush();
+    assertProcessTerminatedNormally(process);
+    stdout.awaitFinish();
+  }
+
+  public void testExecCatWithChannel() throws Exception {
+    if (Platform.isWindows()) {
+      return;
+    }
+    UnixPtyProcess process = (UnixPtyProcess)new PtyProcessBuilder(new String[]{"cat"}).start();
+    PtyChannel channel = process.getChannel();
+
+    ByteBuffer[] input = {
+      ByteBuffer.allocateDirect(3).put("Hel".getBytes(StandardCharsets.UTF_8)).flip(),
+      ByteBuffer.wrap("lo\n".getBytes(StandardCharsets.UTF_8))
+    };
+    assertEquals(6, channel.write(input));
+    ByteBuffer[] output = {ByteBuffer.allocateDirect(4), ByteBuffer.allocateDirect(64)};
+    StringBuilder result = new StringBuilder();
+    while (!result.toString().equals("Hello\r\nHello\r\n")) {
+      long count = channel.read(output);
+      assertTrue(count > 0);
+      for (ByteBuffer buffer : output) {
+        result.append(StandardCharsets.UTF_8.decode(buffer.flip()));
+        buffer.clear();
+      }
+    }
+    channel.write(ByteBuffer.allocateDirect(1).put((byte)4).flip()); // Ctrl+D
+    assertProcessTerminatedNormally(process);
+  }
+
+  public void testStreamReadWriteDoNotAllocate() throws Exception {
+    if (Platform.isWindows() || !(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+      return;
+    }
+    if (Native.POINTER_SIZE != 8 || "jna".equals(System.getProperty("pty4j.native.backend"))) {
+      return; // JNA interface mapping allocates on every call
+    }
+    com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+    if (!threadMXBean.isThreadAllocatedMemorySupported() || !threadMXBean.isThreadAllocatedMemoryEnabled()) {
+      return;
+    }
+    PtyProcess process = new PtyProcessBuilder(new String[]{"cat"}).start();
+    InputStream stdin = process.getInputStream();
+    OutputStream stdout = process.getOutputStream();
+    byte[] line = "abcdefghijklmno\n".getBytes(StandardCharsets.UTF_8);
+    byte[] buffer = new byte[4096];
+    int expectedBytes = 2 * (line.length + 1); // echo and cat output, both with \r\n
+    long threadId = Thread.currentThread().getId();
+    long allocated = -1;
+    // the first rounds warm up the code and may allocate while classes are loaded and compiled
+    for (int round = 0; round < 10 && allocated != 0; round++) {
+      long before = threadMXBean.getThreadAllocatedBytes(threadId);
+      for (int i = 0; i < 1000; i++) {
+        stdout.write(line, 0, line.length);
+        int remaining = expectedBytes;
+        while (remaining > 0) {
+          int count = stdin.read(buffer, 1, buffer.length - 1);
+          assertTrue(count > 0);
+          remaining -= count;
+        }
+      }
+      allocated = threadMXBean.getThreadAllocatedBytes(threadId) - before;
+    }
+    process.destroy();
+    assertEquals(0, allocated);
+  }
+
+  public void testProcessesShareChildReaper() throws Exception {
+    if (!Platform.isLinux() || !Boolean.parseBoolean(System.getProperty("pty4j.shared.reaper", "true"))) {
+      return;
+    }
+    PtyProcess[] processes = new PtyProcess[10];
+    for (int i = 0; i < processes.length; i++) {
+      processes[i] = new PtyProcessBuilder(new String[]{"cat"}).start();
+    }
+    boolean sharedReaperStarted = false;
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      assertFalse(thread.getName(), thread.getName().startsWith("PtyProcess Reaper"));
+      sharedReaperStarted |= thread.getName().equals("Pty4J Child Reaper");
+    }
+    assertTrue(sharedReaperStarted);
+    for (PtyProcess process : processes) {
+      process.getOutputStream().write(4); // Ctrl+D
+      process.getOutputStream().flush();
+    }
+    for (PtyProcess process : processes) {
+      assertProcessTerminatedNormally(process);
+    }
+  }
+
+  public void testOnExit() throws Exception {
+    if (Platform.isWindows()) {
+      return;
+    }
+    PtyProcess process = new PtyProcessBuilder(new String[]{"cat"}).start();
+    CompletableFuture<Process> onExit = process.onExit();
+    assertFalse(onExit.isDone());
+    process.getOutputStream().write(4); // Ctrl+D
+    process.getOutputStream().flush();
+    assertSame(process, onExit.get(10, TimeUnit.SECONDS));
+    assertEquals(0, process.exitValue());
+    assertSame(process, process.onExit().get(10, TimeUnit.SECONDS));
+  }
+
+  public void testTimedWaitForAndIsAlive() throws Exception {
+    if (Platform.isWindows()) {
+      return;
+    }
+    PtyProcess process = new PtyProcessBuilder(new String[]{"cat"}).start();
+    assertTrue(process.isAlive());
+    assertFalse(process.waitFor(100, TimeUnit.MILLISECONDS));
+    assertFalse(process.waitFor(0, TimeUnit.MILLISECONDS));
+    process.getOutputStream().write(4); // Ctrl+D
+    process.getOutputStream().flush();
+    assertTrue(process.waitFor(10, TimeUnit.SECONDS));
+    assertFalse(process.isAlive());
+    assertTrue(process.waitFor(0, TimeUnit.MILLISECONDS));
+  }
+
+  public void testSpawnDaemon() throws Exception {
+    if (Platform.isWindows()) {
+      return;
+    }
+    PtyProcessBuilder builder = new PtyProcessBuilder(new String[]{"sh", "-c", "read line; echo \"Read:$line\""})
+      .setUnixUseSpawnDaemon(true);
+    PtyProcess process = builder.start();
+    long parentPid = ProcessHandle.of(process.pid()).flatMap(ProcessHandle::parent).map(ProcessHandle::pid).orElse(-1L);
+    // the helper supporting the daemon is bundled for linux/x86-64 only, otherwise the regular launch is used
+    boolean daemonUsed = parentPid != ProcessHandle.current().pid();
+    if (Platform.isLinux() && Platform.ARCH.equals("x86-64")) {
+      assertTrue("Process should be started by the spawn daemon", daemonUsed);
+    }
+    Gobbler stdout = startStdoutGobbler(process);
+    writeToStdinAndFlush(process, "Hello", true);
+    stdout.assertEndsWith("Hello\r\nRead:Hello\r\n");
+    assertProcessTerminatedNormally(process);
+
+    PtyProcess exitCode = builder.setCommand(new String[]{"sh", "-c", "exit 7"}).start();
+    assertTrue(exitCode.waitFor(10, TimeUnit.SECONDS));
+    assertEquals(7, exitCode.exitValue());
+
+    if (daemonUsed) {
+      try {
+        builder.setCommand(new String[]{"pty4j-nonexistent-command"}).start();
+        fail("Nonexistent command should fail");
+      }
+      catch (UnixPtyExecException e) {
+        assertEquals(UnixPtyExecException.Step.FIND_EXECUTABLE, e.getStep());
+      }
+      try {
+        builder.setCommand(new String[]{"sh", "-c", "exit 0"}).setDirectory("/pty4j-nonexistent-directory").start();
+        fail("Nonexistent directory should fail");
+      }
+      catch (UnixPtyExecException e) {
+        assertEquals(UnixPtyExecException.Step.CHANGE_DIRECTORY, e.getStep());
+        assertEquals(2 /* ENOENT */, e.getErrno());
+      }
+    }
+  }
+
+  public void testExecFailureIsReported() throws Exception {
+    if (Platform.isWindows()) return;
+    try {
+      new PtyProcessBuilder(new String[]{"pty4j-nonexistent-command"}).start();
+      fail("Nonexistent command should fail");
+    }
+    catch (UnixPtyExecException e) {
+      if (TestUtil.isExecPtyExAvailable()) {
+        assertEquals(UnixPtyExecException.Step.FIND_EXECUTABLE, e.getStep());
+        assertEquals(2 /* ENOENT */, e.getErrno());
+      }
+      else {
+        assertEquals(UnixPtyExecException.Step.UNKNOWN, e.getStep());
+      }
+    }
+  }
+
+  public void testStartAll() throws Exception {
+    if (Platform.isWindows()) {
+      return;
+    }
+    List<PtyProcessBuilder> builders = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      builders.add(new PtyProcessBuilder(new String[]{"sh", "-c", "exit " + i}));
+    }
+    builders.add(new PtyProcessBuilder()); // no command
+    List<CompletableFuture<PtyProcess>> results = PtyProcessBuilder.startAll(builders);
+    assertEquals(builders.size(), results.size());
+    for (int i = 0; i < 8; i++) {
+      PtyProcess process = results.get(i).getNow(null);
+      assertNotNull(process);
+      assertTrue(process.waitFor(10, TimeUnit.SECONDS));
+      assertEquals(i, process.exitValue());
+    }
+    assertTrue(results.get(8).isCompletedExceptionally());
+  }
+
+  public void testInitialSizeWithSpawnDaemon() throws Exception {
+    // the helper supporting the daemon is bundled for linux/x86-64 only
+    if (!Platform.isLinux() || !Platform.ARCH.equals("x86-64")) return;
+    PtyProcess process = new PtyProcessBuilder(new String[]{"stty", "size"})
+      .setUnixUseSpawnDaemon(true)
+      .setInitialColumns(111)
+      .setInitialRows(11)
+      .start();
+    long parentPid = ProcessHandle.of(process.pid()).flatMap(ProcessHandle::parent).map(ProcessHandle::pid).orElse(-1L);
+    assertTrue("Process should be started by the spawn daemon", parentPid != ProcessHandle.current().pid());
+    Gobbler stdout = startStdoutGobbler(process);
+    stdout.assertEndsWith("11 111\r\n");
+    assertProcessTerminatedNormally(process);
+  }
+
+  public void testInitialSizeWithSpawnHelper() throws Exception {
+    // the helper setting the initial size is bundled for linux/x86-64 only
+    if (!Platform.isLinux() || !Platform.ARCH.equals("x86-64")) return;
+    System.setProperty("pty4j.launch.mechanism", "spawn-helper");
+    try {
+      // the helper removes the variable with the initial size before executing the command
+      PtyProcess process = new PtyProcessBuilder(new String[]{"sh", "-c", "stty size; echo \"[$PTY4J_INITIAL_WINSIZE]\""})
+        .setInitialColumns(111)
+        .setInitialRows(11)
+        .start();
+      Gobbler stdout = startStdoutGobbler(process);
+      stdout.assertEndsWith("11 111\r\n[]\r\n");
+      assertProcessTerminatedNormally(process);
+    }
+    finally {
+      System.clearProperty("pty4j.launch.mechanism");
+    }
+  }
+
+  public void testConcurrentStartOpensOwnTty() throws Exception {
+    if (Platform.isWindows()) return;
+    List<PtyProcessBuilder> builders = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      builders.add(new PtyProcessBuilder(new String[]{"tty"}));
+    }
+    Set<String> slaveNames = new HashSet<>();
+    for (CompletableFuture<PtyProcess> result : PtyProcessBuilder.startAll(builders)) {
+      UnixPtyProcess process = (UnixPtyProcess)result.get();
+      String slaveName = process.getPty().getSlaveName();
+      Gobbler stdout = startStdoutGobbler(process);
+      stdout.assertEndsWith(slaveName + "\r\n");
+      assertProcessTerminatedNormally(process);
+      assertTrue(slaveNames.add(slaveName));
+    }
+  }
+
+  public void testStartAsync() throws Exception {
+    if (Platform.isWindows()) return;
+    PtyProcessBuilder builder = new PtyProcessBuilder(new String[]{"sh", "-c", "exit 3"});
+    CompletableFuture<PtyProcess> future = builder.startAsync();
+    // doesn't affect the process being started
+    builder.setCommand(new String[]{"sh", "-c", "exit 4"});
+    PtyProcess process = future.get(10, TimeUnit.SECONDS);
+    assertTrue(process.waitFor(10, TimeUnit.SECONDS));
+    assertEquals(3, process.exitValue());
+
+    // occupy all spawner threads, so that the next starts wait in the queue
+    int threads = ((ThreadPoolExecutor)PtySpawner.getInstance().getExecutor()).getMaximumPoolSize();
+    CountDownLatch started = new CountDownLatch(threads);
+    CountDownLatch release = new CountDownLatch(1);
+    for (int i = 0; i < threads; i++) {
+      PtySpawner.getInstance().getExecutor().execute(() -> {
+        started.countDown();
+        try {
+          release.await();
+        }
+        catch (InterruptedException ignored) {
+        }
+      });
+    }
+    List<CompletableFuture<PtyProcess>> queued = new ArrayList<>();
+    try {
+      assertTrue(started.await(10, TimeUnit.SECONDS));
+      for (int i = 0; i < 2; i++) {
+        queued.add(new PtyProcessBuilder(new String[]{"sh", "-c", "exit 0"}).startAsync());
+      }
+      assertEquals(2, PtyProcessBuilder.getAsyncStartQueueSize());
+    }
+    finally {
+      release.countDown();
+    }
+    for (CompletableFuture<PtyProcess> queuedStart : queued) {
+      assertProcessTerminatedNormally(queuedStart.get(10, TimeUnit.SECONDS));
+    }
+    assertEquals(0, PtyProcessBuilder.getAsyncStartQueueSize());
+
+    CompletableFuture<PtyProcess> failed = new PtyProcessBuilder(new String[]{"pty4j-nonexistent-command"})
+      .startAsync(Runnable::run);
+    assertTrue(failed.isCompletedExceptionally());
+  }
+
+  public void testProcessTemplate() throws Exception {
+    if (Platform.isWindows()) return;
+    PtyProcessBuilder builder = new PtyProcessBuilder(new String[]{"sh", "-c", "read line; pwd"})
+      .setInitialColumns(100)
+      .setInitialRows(20);
+    PtyProcessTemplate template = builder.buildTemplate();
+    // doesn't affect the template
+    builder.setCommand(new String[]{"sh", "-c", "exit 1"});
+
+    String tmpDir = new File("/tmp").getCanonicalPath();
+    for (int i = 0; i < 3; i++) {
+      PtyProcess process = template.start(tmpDir, new WinSize(80 + i, 24));
+      Gobbler stdout = startStdoutGobbler(process);
+      assertEquals(new WinSize(80 + i, 24), process.getWinSize());
+      writeToStdinAndFlush(process, "", true);
+      stdout.assertEndsWith(tmpDir + "\r\n");
+      assertProcessTerminatedNormally(process);
+    }
+    PtyProcess process = template.start();
+    Gobbler stdout = startStdoutGobbler(process);
+    assertEquals(new WinSize(100, 20), process.getWinSize());
+    writeToStdinAndFlush(process, "", true);
+    stdout.assertEndsWith(new File(".").getCanonicalPath() + "\r\n");
+    assertProcessTerminatedNormally(process);
+
+    // the executable is looked up on each start, not when the template is built
+    File firstDir = Files.createTempDirectory("pty4j-path").toFile();
+    File secondDir = Files.createTempDirectory("pty4j-path").toFile();
+    File first = new File(firstDir, "pty4j-template-executable");
+    File second = new File(secondDir, first.getName());
+    try {
+      Files.writeString(second.toPath(), "#!/bin/sh\nexit 5\n");
+      assertTrue(second.setExecutable(true));
+      PtyProcessTemplate pathTemplate = new PtyProcessBuilder(new String[]{first.getName()})
+        .setEnvironment(Collections.singletonMap("PATH", firstDir.getPath() + File.pathSeparator + secondDir.getPath()))
+        .buildTemplate();
+      assertEquals(5, startAndWaitFor(pathTemplate));
+      Files.writeString(first.toPath(), "#!/bin/sh\nexit 6\n");
+      assertTrue(first.setExecutable(true));
+      // see pty4j.executable.cache.revalidate.ms
+      Thread.sleep(1100);
+      assertEquals(6, startAndWaitFor(pathTemplate));
+    }
+    finally {
+      assertTrue(!first.exists() || first.delete());
+      assertTrue(second.delete());
+      assertTrue(firstDir.delete());
+      assertTrue(secondDir.delete());
+    }
+  }
+
+  private static int startAndWaitFor(@NotNull PtyProcessTemplate template) throws Exception {
+    PtyProcess process = template.start();
+    assertTrue(process.waitFor(10, TimeUnit.SECONDS));
+    return process.exitValue();
+  }
+
+  public void testExecutableCache() throws Exception {
+    if (Platform.isWindows()) return;
+    ExecutableCache cache = ExecutableCache.getInstance();
+    File dir = Files.createTempDirectory("pty4j-path").toFile();
+    try {
+      String path = dir.getPath() + File.pathSeparator + "/bin";
+      assertEquals(new File("/bin/sh").getPath(), cache.find("sh", path));
+      long hits = cache.getHitCount();
+      assertEquals(new File("/bin/sh").getPath(), cache.find("sh", path));
+      assertEquals(hits + 1, cache.getHitCount());
+
+      // not found executables aren't cached, e.g. a file may become executable without changes to its directory
+      File executable = new File(dir, "pty4j-executable");
+      assertTrue(executable.createNewFile());
+      assertNull(cache.find(executable.getName(), path));
+      hits = cache.getHitCount();
+      assertTrue(executable.setExecutable(true));
+      assertEquals(executable.getPath(), cache.find(executable.getName(), path));
+      assertEquals(hits, cache.getHitCount());
+      assertTrue(executable.delete());
+
+      PtyProcessBuilder builder = new PtyProcessBuilder(new String[]{"pty4j-no-such-executable"})
+        .setEnvironment(Collections.singletonMap("PATH", path));
+      try {
+        builder.start().destroy();
+        fail("Exception expected");
+      }
+      catch (UnixPtyExecException e) {
+        // reported by pfind()
+        if (TestUtil.isExecPtyExAvailable()) {
+          assertEquals(UnixPtyExecException.Step.FIND_EXECUTABLE, e.getStep());
+          assertEquals(2 /* ENOENT */, e.getErrno());
+        }
+      }
+    }
+    finally {
+      assertTrue(dir.delete());
+    }
+  }
+
+  public void testPreload() throws Exception {
+    ExecutorService executor = Executors.newCachedThreadPool();
+    Map<String, Duration> times;
+    try {
+      times = Pty4j.preload(executor).get(30, TimeUnit.SECONDS);
+    }
+    finally {
+      executor.shutdown();
+    }
+    List<String> expectedPhases = Platform.isWindows()
+                                  ? List.of(Pty4j.PHASE_JNA, Pty4j.PHASE_EXTRACT)
+                                  : List.of(Pty4j.PHASE_JNA, Pty4j.PHASE_EXTRACT, Pty4j.PHASE_LIBPTY, Pty4j.PHASE_LIBC);
+    assertEquals(expectedPhases, new ArrayList<>(times.keySet()));
+    // already initialized
+    assertEquals(times.keySet(), Pty4j.preload(Runnable::run).get().keySet());
+  }
+
+  public void testResizeCoalescer() throws Exception {
+    if (Platform.isWindows()) return;
+    PtyProcess process = new PtyProcessBuilder(new String[]{"sh", "-c", "read line"}).start();
+    try {
+      PtyResizeCoalescer coalescer = new PtyResizeCoalescer(process, 5);
+      coalescer.setWinSize(new WinSize(100, 30));
+      assertEquals(new WinSize(100, 30), process.getWinSize());
+      coalescer.setWinSize(new WinSize(100, 30));
+      for (int i = 1; i <= 50; i++) {
+        coalescer.setWinSize(new WinSize(100 + i, 30));
+      }
+      assertEquals(new WinSize(150, 30), coalescer.getRequestedWinSize());
+      long deadline = System.currentTimeMillis() + 5000;
+      while (coalescer.getAppliedCount() < 2 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals(new WinSize(150, 30), process.getWinSize());
+      assertEquals(2, coalescer.getAppliedCount());
+      assertEquals(50, coalescer.getSuppressedCount());
+
+      coalescer.setWinSize(new WinSize(80, 24));
+      coalescer.flush();
+      assertEquals(new WinSize(80, 24), process.getWinSize());
+      assertEquals(3, coalescer.getAppliedCount());
+    }
+    finally {
+      writeToStdinAndFlush(process, "", true);
+      assertProcessTerminatedNormally(process);
+    }
+  }
+
+  public void testResizeCoalescerFailure() {
+    FailingResizeProcess process = new FailingResizeProcess();
+    PtyResizeCoalescer coalescer = new PtyResizeCoalescer(process, 5);
+    process.myFail = true;
+    try {
+      coalescer.setWinSize(new WinSize(100, 30));
+      fail("The failure of setWinSize should be rethrown");
+    }
+    catch (IllegalStateException ignored) {
+    }
+    assertNull(coalescer.getRequestedWinSize());
+    assertEquals(0, coalescer.getAppliedCount());
+    // the failed size is neither dropped as a duplicate nor deferred
+    process.myFail = false;
+    coalescer.setWinSize(new WinSize(100, 30));
+    assertEquals(new WinSize(100, 30), process.myWinSize);
+    assertEquals(1, coalescer.getAppliedCount());
+    assertEquals(0, coalescer.getSuppressedCount());
+  }
+
+  private static final class FailingResizeProcess extends PtyProcess {
+    private volatile boolean myFail;
+    private volatile WinSize myWinSize;
+
+    @Override
+    public void setWinSize(@NotNull WinSize winSize) {
+      if (myFail) {
+        throw new IllegalStateException("Cannot set window size");
+      }
+      myWinSize = winSize;
+    }
+
+    @Override
+    public @NotNull WinSize getWinSize() {
+      return myWinSize;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+      return OutputStream.nullOutputStream();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+      return InputStream.nullInputStream();
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+      return InputStream.nullInputStream();
+    }
+
+    @Override
+    public int waitFor() {
+      return 0;
+    }
+
+    @Override
+    public int exitValue() {
+      return 0;
+    }
+
+    @Override
+    public void destroy() {
+    }
+  }
+
+  public void testMetrics() throws Exception {
+    if (Platform.isWindows()) return;
+    PtyMetrics metrics = PtyMetrics.getInstance();
+    List<String> events = Collections.synchronizedList(new ArrayList<>());
+    PtyMetricsListener listener = new PtyMetricsListener() {
+      @Override
+      public void sessionStarted(@NotNull PtySessionMetrics session) {
+        events.add("started " + session.getPid());
+      }
+
+      @Override
+      public void sessionEnded(@NotNull PtySessionMetrics session) {
+        events.add("ended " + session.getPid());
+      }
+
+      @Override
+      public void spawnFailed(int errno, @NotNull IOException e) {
+        events.add("failed " + errno);
+      }
+    };
+    metrics.addListener(listener);
+    metrics.registerMBeans();
+    try {
+      long started = metrics.getStartedSessions();
+      UnixPtyProcess process = (UnixPtyProcess)new PtyProcessBuilder(new String[]{"sh", "-c", "read line; echo \"Read:$line\""})
+        .start();
+      PtySessionMetrics session = process.getMetrics();
+      assertNotNull(session);
+      assertEquals(process.pid(), session.getPid());
+      assertEquals(started + 1, metrics.getStartedSessions());
+      assertTrue(metrics.getSessions().contains(session));
+      assertEquals(metrics.getStartedSessions(),
+                   metrics.getSpawnTimeHistogram().values().stream().mapToLong(Long::longValue).sum());
+      ObjectName name = new ObjectName("com.pty4j:type=PtySession,pid=" + process.pid());
+      assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+
+      process.setWinSize(new WinSize(100, 30));
+      assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "ResizeCalls"));
+      writeToStdinAndFlush(process, "hello", true);
+      StringBuilder output = new StringBuilder();
+      InputStream inputStream = process.getInputStream();
+      byte[] buffer = new byte[1024];
+      while (!output.toString().contains("Read:hello")) {
+        int count = inputStream.read(buffer);
+        assertTrue("Unexpected end of output: " + output, count >= 0);
+        output.append(new String(buffer, 0, count, StandardCharsets.UTF_8));
+      }
+      assertProcessTerminatedNormally(process);
+
+      assertEquals(6, session.getBytesWritten());
+      assertTrue(session.getBytesRead() >= "hello\r\nRead:hello".length());
+      assertTrue(session.getReadCalls() > 0);
+      assertTrue(session.getPollWakeups() >= session.getReadCalls());
+      assertEquals((double)session.getBytesRead() / session.getReadCalls(), session.getAverageBytesPerRead(), 1e-9);
+      assertEquals(1, session.getResizeCalls());
+      long deadline = System.currentTimeMillis() + 5000;
+      // listeners are notified last
+      while (!events.contains("ended " + process.pid()) && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertFalse(metrics.getSessions().contains(session));
+      assertTrue(session.getBreakReadCalls() > 0);
+      assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+      assertEquals(List.of("started " + process.pid(), "ended " + process.pid()), events);
+
+      Map<Integer, Long> failures = metrics.getSpawnFailures();
+      try {
+        new PtyProcessBuilder(new String[]{"pty4j-metrics-no-such-command"}).start();
+        fail("The command should not be found");
+      }
+      catch (UnixPtyExecException e) {
+        int errno = e.getErrno();
+        assertEquals(TestUtil.isExecPtyExAvailable() ? 2 /* ENOENT */ : 0, errno);
+        assertEquals(failures.getOrDefault(errno, 0L) + 1, (long)metrics.getSpawnFailures().get(errno));
+        assertTrue(events.contains("failed " + errno));
+      }
+      assertEquals(metrics.getLiveSessions(),
+                   ManagementFactory.getPlatformMBeanServer().getAttribute(new ObjectName("com.pty4j:type=PtyMetrics"),
+                                                                           "LiveSessions"));
+    }
+    finally {
+      metrics.removeListener(listener);
+      metrics.setEnabled(false);
+    }
+  }
+
+  public void testPtyPool() throws Exception {
+    if (Platform.isWindows()) {
+      return;
+    }
+    try (PtyPool pool = new PtyPool(2)) {
+      long deadline = System.currentTimeMillis() + 10_000;
+      while (pool.getReadyCount() < 2 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals(2, pool.getReadyCount());
+      PtyProcessBuilder builder = new PtyProcessBuilder(new String[]{"sh", "-c", "read line; echo \"Read:$line\""})
+        .setUnixPtyPool(pool);
+      List<PtyProcess> processes = new ArrayList<>();
+      for (int i = 0; i < 3; i++) {
+        processes.add(builder.start());
+      }
+      assertTrue(pool.getHitCount() >= 2);
+      assertEquals(3, pool.getHitCount() + pool.getMissCount());
+      for (PtyProcess process : processes) {
+        Gobbler stdout = startStdoutGobbler(process);
+        writeToStdinAndFlush(process, "Hello", true);
+        stdout.assertEndsWith("Hello\r\nRead:Hello\r\n");
+        assertProcessTerminatedNormally(process);
+      }
+    }
+  }
+
   public void testWaitForInTheBeginning() throws Exception {
     if (Platform.isWindows()) {
       return;
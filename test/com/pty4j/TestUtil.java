@@ -2,11 +2,13 @@ package com.pty4j;
 
 import com.pty4j.unix.Pty;
 import com.pty4j.util.PtyUtil;
+import com.sun.jna.NativeLibrary;
 import com.sun.jna.Platform;
 import com.sun.jna.platform.win32.Kernel32;
 import kotlin.KotlinVersion;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.junit.Assert;
 import org.slf4j.Logger;
 
 import java.io.File;
@@ -164,6 +166,26 @@ public class TestUtil {
     }
   }
 
+  /**
+   * @return true if the bundled libpty exports {@code exec_pty_ex}, which is required where libpty has been rebuilt.
+   * Older libpty sets the initial size from the parent and doesn't report the failed step of a start.
+   */
+  public static boolean isExecPtyExAvailable() {
+    File library = PtyUtil.resolveNativeFile(Platform.isMac() ? "libpty.dylib" : "libpty.so");
+    boolean available;
+    try {
+      NativeLibrary.getInstance(library.getAbsolutePath()).getFunction("exec_pty_ex");
+      available = true;
+    }
+    catch (UnsatisfiedLinkError e) {
+      available = false;
+    }
+    if (!available && Platform.isLinux() && Platform.ARCH.equals("x86-64")) {
+      Assert.fail("libpty for linux/x86-64 should export exec_pty_ex");
+    }
+    return available;
+  }
+
   public static void assertConsoleExists() {
     if (System.console() == null) {
       System.err.println("Not a terminal");
@@ -0,0 +1,92 @@
+package com.pty4j.unix;
+
+import com.pty4j.PtyProcess;
+import com.pty4j.PtyProcessBuilder;
+import com.pty4j.TestUtil;
+import com.sun.jna.Platform;
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests of {@code exec_pty_ex} of the bundled libpty, see {@code native/exec_pty.h}.
+ */
+public class NativePtyExecutorTest extends TestCase {
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    TestUtil.setLocalPtyLib();
+  }
+
+  public void testCloneLaunchOnLinux() throws Exception {
+    if (!Platform.isLinux() || !TestUtil.isExecPtyExAvailable()) return;
+    int[] status = new int[3];
+    assertEquals(3, execAndWait(new String[]{"/bin/sh", "-c", "exit 3"}, 0, status));
+    assertEquals(NativePtyExecutor.EXEC_PTY_LAUNCH_CLONE, status[2]);
+
+    status = new int[3];
+    assertEquals(3, execAndWait(new String[]{"/bin/sh", "-c", "exit 3"}, NativePtyExecutor.EXEC_PTY_FORK, status));
+    assertEquals(NativePtyExecutor.EXEC_PTY_LAUNCH_FORK, status[2]);
+  }
+
+  public void testChildTakesSlaveFromMaster() throws Exception {
+    if (!Platform.isLinux() || !TestUtil.isExecPtyExAvailable()) return;
+    for (int flags : new int[]{0, NativePtyExecutor.EXEC_PTY_FORK}) {
+      Pty pty = new Pty();
+      try {
+        int peer = CLibrary.openPtyPeer(pty.getMasterFD(), CLibrary.O_RDWR | CLibrary.O_NOCTTY);
+        if (peer < 0) return; // TIOCGPTPEER appeared in Linux 4.13
+        CLibrary.close(peer);
+        // the slave name passed to the child is wrong, so it's opened only if the child takes it from the master
+        String[] command = {"/bin/sh", "-c", "[ \"$(tty)\" = " + pty.getSlaveName() + " ]"};
+        assertEquals(0, execAndWait(pty, "/dev/pty4j-nonexistent-slave", command, flags, new int[3]));
+      }
+      finally {
+        pty.close();
+      }
+    }
+  }
+
+  public void testInitialSizeIsSetBeforeExec() throws Exception {
+    // an older libpty sets the size from the parent after the start, racing with stty
+    if (Platform.isWindows() || !TestUtil.isExecPtyExAvailable()) return;
+    String[] command = {"/bin/sh", "-c", "[ \"$(stty size)\" = \"11 111\" ]"};
+    for (String mechanism : new String[]{null, "fork"}) {
+      if (mechanism != null) {
+        System.setProperty("pty4j.launch.mechanism", mechanism);
+      }
+      try {
+        PtyProcess process = new PtyProcessBuilder(command).setInitialColumns(111).setInitialRows(11).start();
+        assertTrue(process.waitFor(10, TimeUnit.SECONDS));
+        assertEquals(0, process.exitValue());
+      }
+      finally {
+        System.clearProperty("pty4j.launch.mechanism");
+      }
+    }
+  }
+
+  private static @NotNull NativePtyExecutor getExecutor() {
+    return (NativePtyExecutor)PtyHelpers.getPtyExecutor();
+  }
+
+  private static int execAndWait(@NotNull String[] command, int flags, int @NotNull [] status) throws Exception {
+    Pty pty = new Pty();
+    try {
+      return execAndWait(pty, pty.getSlaveName(), command, flags, status);
+    }
+    finally {
+      pty.close();
+    }
+  }
+
+  private static int execAndWait(@NotNull Pty pty, @NotNull String slaveName, @NotNull String[] command, int flags,
+                                 int @NotNull [] status) throws Exception {
+    String[] environment = {"PATH=" + System.getenv("PATH")};
+    int pid = getExecutor().execPtyEx(command[0], command, environment, ".", slaveName, pty.getMasterFD(),
+                                      null, -1, false, null, flags, status);
+    return getExecutor().waitForProcessExitAndGetExitCode(pid);
+  }
+}
@@ -0,0 +1,93 @@
+package com.pty4j.util;
+
+import com.pty4j.TestUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures how long {@link ExtractedNative} takes to provide the native directory on startup:
+ * extraction to a new temp directory, MD5 validation of {@code pty4j.tmpdir}, and the stamp check of the persistent cache.
+ * <p>
+ * Run with {@code ./gradlew nativeStartupBenchmark}. The only argument is the number of iterations, 50 by default.
+ */
+public class ExtractedNativeStartupBenchmark {
+
+  private static final String CONTENT_HASH = "0123456789abcdef0123456789abcdef";
+
+  public static void main(String[] args) throws Exception {
+    int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+    String resourceNamePrefix = null;
+    String resourceName = ExtractedNative.DEFAULT_RESOURCE_NAME_PREFIX + ExtractedNative.LOCATIONS[0];
+    if (ExtractedNative.class.getClassLoader().getResource(resourceName) == null) {
+      URL url = TestUtil.getBuiltNativeFolder().toUri().toURL();
+      Thread.currentThread().setContextClassLoader(URLClassLoader.newInstance(new URL[]{url}));
+      resourceNamePrefix = "";
+    }
+    String osArchSubPath = PtyUtil.getNativeLibraryOsArchSubPath();
+
+    Path workDir = Files.createTempDirectory("pty4j-benchmark-");
+    try {
+      Path cacheDir = workDir.resolve("cache");
+      Path staticDir = Files.createDirectory(workDir.resolve("tmpdir"));
+      String prefix = resourceNamePrefix;
+
+      report("temp directory", iterations, () -> {
+        File dir = new ExtractedNative(osArchSubPath, prefix, null, null).getDestDir();
+        delete(dir.toPath());
+      });
+      System.setProperty("pty4j.tmpdir", staticDir.toString());
+      try {
+        report("pty4j.tmpdir", iterations, () -> new ExtractedNative(osArchSubPath, prefix, null, null).getDestDir());
+      }
+      finally {
+        System.clearProperty("pty4j.tmpdir");
+      }
+      report("persistent cache", iterations, () -> new ExtractedNative(osArchSubPath, prefix, CONTENT_HASH, cacheDir).getDestDir());
+    }
+    finally {
+      delete(workDir);
+    }
+  }
+
+  private static void report(@NotNull String name, int iterations, @NotNull ThrowingRunnable runnable) throws Exception {
+    // the first run extracts the files for the modes that keep them
+    runnable.run();
+    long[] times = new long[iterations];
+    for (int i = 0; i < iterations; i++) {
+      long startTimeNano = System.nanoTime();
+      runnable.run();
+      times[i] = System.nanoTime() - startTimeNano;
+    }
+    Arrays.sort(times);
+    System.out.printf("%-18s median %8.3f ms, p90 %8.3f ms%n", name, toMillis(times[iterations / 2]),
+                      toMillis(times[iterations * 9 / 10]));
+  }
+
+  private static double toMillis(long nanos) {
+    return nanos / (double)TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+  private static void delete(@Nullable Path path) throws Exception {
+    if (path != null && Files.exists(path)) {
+      try (Stream<Path> stream = Files.walk(path)) {
+        for (Path child : stream.sorted(Comparator.reverseOrder()).toArray(Path[]::new)) {
+          Files.delete(child);
+        }
+      }
+    }
+  }
+
+  private interface ThrowingRunnable {
+    void run() throws Exception;
+  }
+}
@@ -1,6 +1,7 @@
 package com.pty4j.util;
 
 import com.pty4j.TestUtil;
+import org.jetbrains.annotations.NotNull;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -18,6 +19,11 @@ import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class ExtractedNativeTest {
 
@@ -94,4 +100,94 @@ public class ExtractedNativeTest {
     }
   }
 
+  @Test
+  public void extractsToPersistentCache() throws Exception {
+    String osArchSubPath = PtyUtil.getNativeLibraryOsArchSubPath();
+    String contentHash = "0123456789abcdef";
+    Path cacheDir = Files.createTempDirectory("pty4j-cache-").resolve("cache");
+    try {
+      File destDir = new ExtractedNative(osArchSubPath, myResourceNamePrefix, contentHash, cacheDir).getDestDir();
+      Assert.assertEquals(cacheDir, destDir.toPath().getParent());
+      Assert.assertTrue(new File(destDir, ExtractedNative.STAMP_FILE_NAME).isFile());
+      for (String location : ExtractedNative.LOCATIONS) {
+        if (location.startsWith(osArchSubPath + "/")) {
+          File file = new File(destDir, location.substring(location.lastIndexOf('/') + 1));
+          Assert.assertTrue("File doesn't exist " + file.getAbsolutePath(), file.isFile());
+        }
+      }
+
+      // reused as is, without comparing the files
+      File marker = new File(destDir, "marker");
+      Assert.assertTrue(marker.createNewFile());
+      Assert.assertEquals(destDir, new ExtractedNative(osArchSubPath, myResourceNamePrefix, contentHash, cacheDir).getDestDir());
+      Assert.assertTrue(marker.isFile());
+
+      // a new content hash gets a new directory
+      File otherDestDir = new ExtractedNative(osArchSubPath, myResourceNamePrefix, "fedcba9876543210", cacheDir).getDestDir();
+      Assert.assertNotEquals(destDir, otherDestDir);
+    }
+    finally {
+      deleteRecursively(cacheDir.getParent());
+    }
+  }
+
+  @Test
+  public void extractsToPersistentCacheInTmpDir() throws Exception {
+    String osArchSubPath = PtyUtil.getNativeLibraryOsArchSubPath();
+    Path tmpDir = Files.createTempDirectory("pty4j-tmpdir-");
+    String prevTmpDir = System.getProperty("pty4j.tmpdir");
+    System.setProperty("pty4j.tmpdir", tmpDir.toString());
+    try {
+      File destDir = new ExtractedNative(osArchSubPath, myResourceNamePrefix, "0123456789abcdef", null).getDestDir();
+      Assert.assertEquals(tmpDir, destDir.toPath().getParent());
+      Assert.assertTrue(new File(destDir, ExtractedNative.STAMP_FILE_NAME).isFile());
+      Assert.assertEquals(destDir, new ExtractedNative(osArchSubPath, myResourceNamePrefix, "0123456789abcdef", null).getDestDir());
+    }
+    finally {
+      if (prevTmpDir != null) {
+        System.setProperty("pty4j.tmpdir", prevTmpDir);
+      }
+      else {
+        System.clearProperty("pty4j.tmpdir");
+      }
+      deleteRecursively(tmpDir);
+    }
+  }
+
+  @Test
+  public void extractsToPersistentCacheConcurrently() throws Exception {
+    String osArchSubPath = PtyUtil.getNativeLibraryOsArchSubPath();
+    Path cacheDir = Files.createTempDirectory("pty4j-cache-");
+    try {
+      ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+      List<CompletableFuture<File>> futures = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        futures.add(CompletableFuture.supplyAsync(() -> {
+          Thread.currentThread().setContextClassLoader(contextClassLoader);
+          return new ExtractedNative(osArchSubPath, myResourceNamePrefix, "0123456789abcdef", cacheDir).getDestDir();
+        }, Executors.newSingleThreadExecutor()));
+      }
+      Set<File> destDirs = new HashSet<>();
+      for (CompletableFuture<File> future : futures) {
+        destDirs.add(future.get(30, TimeUnit.SECONDS));
+      }
+      Assert.assertEquals(1, destDirs.size());
+      // temp directories of the losers are removed
+      try (Stream<Path> stream = Files.list(cacheDir)) {
+        Assert.assertEquals(1, stream.count());
+      }
+    }
+    finally {
+      deleteRecursively(cacheDir);
+    }
+  }
+
+  private static void deleteRecursively(@NotNull Path dir) throws IOException {
+    try (Stream<Path> stream = Files.walk(dir)) {
+      for (Path path : stream.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+        Files.delete(path);
+      }
+    }
+  }
+
 }